@@ -0,0 +1,186 @@
+package org.ucb.c5.constructionfile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.ucb.c5.constructionfile.model.RestrictionEnzyme;
+import org.ucb.c5.sequtils.IupacMask;
+import org.ucb.c5.utils.FileUtils;
+
+/**
+ * Restriction enzymes by name, read from a REBASE withrefm-format file.
+ *
+ * Each enzyme is created once, with its site compiled, and looked up by
+ * name regardless of case.  Enzymes with the same site and the same cuts
+ * are isoschizomers and share one group, so a step naming Eco31I can be run
+ * with the BsaI on the shelf.  Sites use REBASE notation: ^ marks the top
+ * strand cut of an enzyme cutting inside its site, and a trailing (n/m)
+ * gives the top and bottom cuts n and m bases past the end of the site for
+ * Type IIS enzymes.  Entries whose cuts are unknown are skipped.
+ *
+ * The default registry is parsed from the bundled data file the first time
+ * it is asked for.  Registries are immutable and can be shared by any
+ * number of threads.
+ */
+public class EnzymeRegistry {
+
+    public static final String DEFAULT_DATA = "constructionfile/data/rebase_withrefm.txt";
+
+    private final Map<String, RestrictionEnzyme> byName;
+    private final Map<String, List<RestrictionEnzyme>> groups;
+    private final Collection<RestrictionEnzyme> all;
+
+    private EnzymeRegistry(Map<String, RestrictionEnzyme> byName, Map<String, List<RestrictionEnzyme>> groups, Collection<RestrictionEnzyme> all) {
+        this.byName = byName;
+        this.groups = groups;
+        this.all = all;
+    }
+
+    /**
+     * Loaded on first use by the class loader, which makes it thread-safe
+     */
+    private static class Holder {
+
+        static final EnzymeRegistry INSTANCE = load();
+
+        private static EnzymeRegistry load() {
+            try {
+                return parse(FileUtils.readResourceFile(DEFAULT_DATA));
+            } catch (Exception err) {
+                throw new RuntimeException("Could not load the enzyme registry from " + DEFAULT_DATA, err);
+            }
+        }
+    }
+
+    /**
+     * @return the registry of the bundled REBASE data
+     */
+    public static EnzymeRegistry getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param text the contents of a withrefm or bairoch style file; only
+     * the <1> name and <3> site fields are used
+     * @return the registry of its enzymes
+     * @throws IllegalArgumentException if a site cannot be read
+     */
+    public static EnzymeRegistry parse(String text) {
+        Map<String, RestrictionEnzyme> byName = new HashMap<>();
+        Map<String, List<RestrictionEnzyme>> groups = new LinkedHashMap<>();
+        List<RestrictionEnzyme> all = new ArrayList<>();
+
+        String name = null;
+        for (String line : text.split("\\r|\\r?\\n")) {
+            if (line.startsWith("<1>")) {
+                name = line.substring(3).trim();
+            } else if (line.startsWith("<3>") && name != null && !name.isEmpty()) {
+                RestrictionEnzyme enz = parseSite(name, line.substring(3).trim());
+                name = null;
+                if (enz == null || byName.containsKey(enz.getName().toLowerCase())) {
+                    continue;
+                }
+                byName.put(enz.getName().toLowerCase(), enz);
+                all.add(enz);
+                String key = enz.getSite() + "(" + enz.getCut5() + "/" + enz.getCut3() + ")";
+                List<RestrictionEnzyme> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(key, group);
+                }
+                group.add(enz);
+            }
+        }
+
+        //Freeze the groups and index them by member name
+        Map<String, List<RestrictionEnzyme>> byMember = new HashMap<>();
+        for (List<RestrictionEnzyme> group : groups.values()) {
+            List<RestrictionEnzyme> frozen = Collections.unmodifiableList(group);
+            for (RestrictionEnzyme enz : group) {
+                byMember.put(enz.getName().toLowerCase(), frozen);
+            }
+        }
+        return new EnzymeRegistry(byName, byMember, Collections.unmodifiableList(all));
+    }
+
+    /**
+     * @return the enzyme for a site in REBASE notation, or null if its cuts
+     * are not known
+     */
+    private static RestrictionEnzyme parseSite(String name, String rebase) {
+        if (rebase.isEmpty() || rebase.contains("?")) {
+            return null;
+        }
+        String site = rebase;
+
+        //A leading (n/m) is the upstream cut of a double cutter; not modelled
+        if (site.startsWith("(")) {
+            site = site.substring(site.indexOf(')') + 1);
+        }
+
+        int cut5;
+        int cut3;
+        int paren = site.indexOf('(');
+        if (paren >= 0) {
+            String[] offsets = site.substring(paren + 1, site.indexOf(')', paren)).split("/");
+            site = site.substring(0, paren);
+            cut5 = site.length() + Integer.parseInt(offsets[0].trim());
+            cut3 = site.length() + Integer.parseInt(offsets[1].trim());
+        } else {
+            int caret = site.indexOf('^');
+            if (caret < 0) {
+                return null;
+            }
+            site = site.substring(0, caret) + site.substring(caret + 1);
+            //The bottom strand is cut symmetrically
+            cut5 = caret;
+            cut3 = site.length() - caret;
+        }
+        site = site.toUpperCase();
+        if (!IupacMask.isValid(site)) {
+            throw new IllegalArgumentException("Enzyme " + name + " has an unreadable site " + rebase);
+        }
+        return new RestrictionEnzyme(name, site, cut5, cut3, 0);
+    }
+
+    /**
+     * @return the enzyme with this name in any case, or null if unknown
+     */
+    public RestrictionEnzyme get(String name) {
+        return name == null ? null : byName.get(name.toLowerCase());
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * @return the enzymes with the same site and cuts as the named one,
+     * including itself, or an empty list if the name is unknown
+     */
+    public List<RestrictionEnzyme> getIsoschizomers(String name) {
+        List<RestrictionEnzyme> group = name == null ? null : groups.get(name.toLowerCase());
+        return group == null ? Collections.<RestrictionEnzyme>emptyList() : group;
+    }
+
+    /**
+     * @return every enzyme, in file order
+     */
+    public Collection<RestrictionEnzyme> getAll() {
+        return all;
+    }
+
+    public static void main(String[] args) {
+        EnzymeRegistry registry = getDefault();
+        System.out.println(registry.getAll().size() + " enzymes");
+        for (String name : new String[]{"BamHI", "pstI", "BsaI", "HindIII", "SapI", "Sau3AI"}) {
+            RestrictionEnzyme enz = registry.get(name);
+            System.out.println(enz + " palindromic:" + enz.isPalindromic() + " typeIIS:" + enz.cutsOutsideSite()
+                    + " isoschizomers:" + registry.getIsoschizomers(name));
+        }
+    }
+}
@@ -2,10 +2,20 @@ package org.ucb.c5.constructionfile;
 
 import org.ucb.c5.constructionfile.model.*;
 import org.ucb.c5.utils.FileUtils;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.ucb.c5.sequtils.IupacMask;
 import org.ucb.c5.utils.Log;
 
 /**
@@ -20,170 +30,198 @@ public class ParseConstructionFile {
     }
 
     public ConstructionFile run(String rawText) throws Exception {
-        // Create a map to store given sequences and a list to store the steps
+        return run(new StringReader(rawText));
+    }
+
+    public ConstructionFile run(Path path) throws Exception {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return run(reader);
+        }
+    }
+
+    public ConstructionFile run(InputStream instream) throws Exception {
+        return run(new InputStreamReader(instream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a construction file one line at a time.
+     *
+     * The steps come first, after an optional > title.  The sequences follow
+     * either a dividing line of dashes or the first FASTA header after a
+     * step.  They are FASTA records, each wrapped over any number of lines,
+     * or name-tab-sequence lines.  Only the sequence being read is held in
+     * memory, besides the parsed file.
+     */
+    public ConstructionFile run(Reader reader) throws Exception {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
         HashMap<String, Polynucleotide> sequences = new HashMap<>();
         List<Step> steps = new ArrayList<>();
 
-        //Handle when a dividing line separates cf and seqs
-        String[] underSplit = rawText.split("(-)\\1{3,}");
-        if (underSplit.length == 2) {
-            try {
-                processSequences(underSplit[1].trim(), sequences);
-            } catch (Exception err) {
-                Log.severe("Could not parse sequences below the line:\n" + underSplit[1]);
-                throw err;
-            }
-            try {
-                processSteps(underSplit[0], steps);
-            } catch (Exception err) {
-                Log.severe("Could not parse steps above the line:\n" + underSplit[0]);
-                throw err;
+        //The FASTA record being read, if any
+        String name = null;
+        StringBuilder seq = new StringBuilder();
+
+        boolean inSteps = true;
+        int lineNumber = 0;
+        String aline;
+        while ((aline = in.readLine()) != null) {
+            lineNumber++;
+            String trimmed = aline.trim();
+
+            if (inSteps) {
+                //Handle when a dividing line separates cf and seqs
+                if (isDivider(trimmed)) {
+                    inSteps = false;
+                    continue;
+                }
+                //Handle when a > after the steps designates boundary
+                if (!trimmed.startsWith(">") || steps.isEmpty()) {
+                    try {
+                        Step parsedStep = parseStep(aline);
+                        if (parsedStep != null) {
+                            steps.add(parsedStep);
+                        }
+                    } catch (Exception err) {
+                        Log.severe("Could not parse line " + lineNumber + ":\n" + aline);
+                        throw err;
+                    }
+                    continue;
+                }
+                inSteps = false;
             }
-            String plasmidName = steps.get(steps.size() - 1).getProduct();
-            return new ConstructionFile(steps, plasmidName, sequences);
-        }
 
-        //Handle when a > designates boundary
-        int gtLocus = rawText.indexOf(">", 1);
-        if (gtLocus > -1) {
-            String stepSection = rawText.substring(0, gtLocus);
-            String seqSection = rawText.substring(gtLocus);
-            processSteps(stepSection, steps);
             try {
-                processSequences(seqSection.trim(), sequences);
+                if (trimmed.startsWith(">")) {
+                    //Close the previous record and start the next
+                    if (name != null) {
+                        addSequence(name, seq, sequences, "FASTA");
+                    }
+                    name = fastaName(trimmed);
+                    seq.setLength(0);
+                } else if (trimmed.isEmpty() || trimmed.startsWith("//")) {
+                    //Ignore blank and commented-out lines
+                } else if (name != null) {
+                    appendBases(aline, 0, aline.length(), seq);
+                } else {
+                    //A name and sequence separated by a tab
+                    int tab = aline.indexOf('\t');
+                    if (tab < 0) {
+                        throw new IllegalArgumentException("Expected a name and sequence separated by a tab");
+                    }
+                    int end = aline.indexOf('\t', tab + 1);
+                    seq.setLength(0);
+                    appendBases(aline, tab + 1, end < 0 ? aline.length() : end, seq);
+                    addSequence(aline.substring(0, tab), seq, sequences, "TSV");
+                }
             } catch (Exception err) {
-                Log.severe("Could not parse fasta in:\n" + seqSection);
+                Log.severe("Could not parse sequence line " + lineNumber + ":\n" + aline);
                 throw err;
             }
-            String plasmidName = steps.get(steps.size() - 1).getProduct();
-            return new ConstructionFile(steps, plasmidName, sequences);
+        }
+        if (name != null) {
+            addSequence(name, seq, sequences, "FASTA");
         }
 
-        //Handle if no sequences are provided
-        String stepSection = rawText;
-        processSteps(stepSection, steps);
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("No steps in construction file");
+        }
         String plasmidName = steps.get(steps.size() - 1).getProduct();
         return new ConstructionFile(steps, plasmidName, sequences);
     }
 
-    private void processSteps(String rawText, List<Step> steps) throws Exception {
-
-        //Replace common unnessary words
-        String text = rawText;
-        text = text.replaceAll("\r", "\n");
-        text = text.replaceAll("\\\\", "\n\\\\");
-
-        //Break it into lines
-        String[] lines = text.split("\\r|\\r?\\n");
-
-        //Process each good line
-        for (int i = 0; i < lines.length; i++) {
-            String aline = lines[i];
-
-            //Ignore blank lines
-            if (aline.trim().isEmpty()) {
-                continue;
-            }
-
-            //Ignore commented-out lines
-            if (aline.trim().startsWith("//")) {
-                continue;
-            }
-
-            //Ignore title
-            if (aline.toLowerCase().trim().startsWith(">")) {
-                continue;
+    /**
+     * @return whether line is a run of four or more dashes
+     */
+    private boolean isDivider(String line) {
+        if (line.length() < 4) {
+            return false;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) != '-') {
+                return false;
             }
+        }
+        return true;
+    }
 
-            //Try to parse the operation, if fails will throw Exception
-            String[] spaces = aline.split("\\s+");
-            String sop = spaces[0].toLowerCase();
-            String lineNoOP = aline.substring(sop.length());
+    /**
+     * @return the first word after the > of a FASTA header
+     */
+    private String fastaName(String header) {
+        int start = 1;
+        while (start < header.length() && Character.isWhitespace(header.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < header.length() && !Character.isWhitespace(header.charAt(end))) {
+            end++;
+        }
+        if (start == end) {
+            throw new IllegalArgumentException("FASTA header has no name");
+        }
+        return header.substring(start, end);
+    }
 
-            //Cleanup was removed from ConstructionFile
-            if (sop.equals("cleanup")) {
+    /**
+     * Appends the bases of line from start to end to seq in upper case,
+     * skipping whitespace
+     */
+    private void appendBases(String line, int start, int end, StringBuilder seq) {
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
                 continue;
             }
-
-            Operation op;
-            try {
-                op = Operation.valueOf(sop);
-            } catch (Exception err) {
-                Log.severe("Unable to parse operation: " + sop);
-                throw err;
+            if (IupacMask.mask(c) == 0) {
+                throw new IllegalArgumentException("Sequence contains non-DNA character '" + c + "'");
             }
+            seq.append(Character.toUpperCase(c));
+        }
+    }
 
-            //If past the gauntlet, keep the line
-            try {
-                ///parseLine input (Operation, String)
-                Step parsedStep = parseLine(op, lineNoOP);
-                steps.add(parsedStep);
-            } catch (Exception err) {
-                err.printStackTrace();
-                Log.severe("Could not parse the line:\n" + aline + "\nin text:\n" + rawText);
-                throw err;
-            }
+    private void addSequence(String name, StringBuilder seqBuffer, HashMap<String, Polynucleotide> sequences, String format) throws Exception {
+        if (seqBuffer.length() == 0) {
+            throw new IllegalArgumentException("No sequence given for " + name + " in " + format);
+        }
+        String seq = seqBuffer.toString();
+        Polynucleotide existPoly = sequences.get(name);
+        Polynucleotide newPoly = createPoly(seq);
+        if (existPoly == null || existPoly.equals(newPoly)) {
+            sequences.put(name, newPoly);
+        } else {
+            throw new IllegalArgumentException("Two different polynucleotides:" + newPoly +
+                    "and " + existPoly + "with same name:" + name + "in " + format);
         }
+        Log.seq(name, seq, "Construction file sequence from " + format + " added");
     }
 
-    private void processSequences(String seqSection, HashMap<String, Polynucleotide> sequences) throws Exception {
-        //Handle if it is a list of FASTA
-        if (seqSection.contains(">")) {
-            String[] fseqs = seqSection.split(">");
-            for (String f : fseqs) {
-                if (f.trim().isEmpty()) {
-                    continue;
-                }
-                String[] lines = f.trim().split("\\r|\\r?\\n");
-                String[] spaces = lines[0].split("\\s+");
-                String name = spaces[0];
+    /**
+     * @return the step on aline, or null if it holds none
+     */
+    private Step parseStep(String aline) throws Exception {
+        String trimmed = aline.trim();
 
-                String seq = lines[1].toUpperCase();
-                if (!seq.toUpperCase().matches("[ACGTRYSWKMBDHVNacgtryswkmbdhvn]+")) {
-                    throw new IllegalArgumentException("Sequence:\n" + seq + "\ncontains non-DNA sequences in:\n" + f);
-                }
-                Polynucleotide existPoly = sequences.get(name);
-                Polynucleotide newPoly = createPoly(seq);
-                if (existPoly == null || existPoly.equals(newPoly)) {
-                    sequences.put(name, newPoly);
-                } else {
-                    throw new IllegalArgumentException("Two different polynucleotides:" + newPoly +
-                            "and " + existPoly + "with same name:" + name + "in FASTA");
-                }
-                Log.seq(name, seq, "Construction file sequence from FASTA added");
-            }
-            return;
+        //Ignore blank lines, commented-out lines and titles
+        if (trimmed.isEmpty() || trimmed.startsWith("//") || trimmed.startsWith(">")) {
+            return null;
         }
 
-        //Handle if it is in TSV
-        String[] lines = seqSection.split("\\r|\\r?\\n");
-        for (String line : lines) {
-            //Ignore blank lines
-            if (line.trim().isEmpty()) {
-                continue;
-            }
+        List<StepLexer.Token> tokens = StepLexer.lex(trimmed);
+        String sop = tokens.get(0).getText();
 
-            //Ignore commented-out lines
-            if (line.startsWith("//")) {
-                continue;
-            }
+        //Cleanup was removed from ConstructionFile
+        if (sop.equals("cleanup")) {
+            return null;
+        }
 
-            String[] tabs = line.split("\t");
-            String name = tabs[0];
-            String seq = tabs[1].toUpperCase();
-            if (!seq.matches("[ATCGRYSWKMBDHVN]+")) {
-                throw new IllegalArgumentException("Sequence:\n" + seq + "\ncontains non-DNA sequences in:\n" + line);
-            }
-            Polynucleotide existPoly = sequences.get(name);
-            Polynucleotide newPoly = createPoly(seq);
-            if (existPoly == null || existPoly.equals(newPoly)) {
-                sequences.put(name, newPoly);
-            } else {
-                throw new IllegalArgumentException("Two different polynucleotides:" + newPoly +
-                        "and " + existPoly + "with same name:" + name + "in TSV");
-            }
-            Log.seq(name, seq, "Construction file sequence from TSV added");
+        Operation op;
+        try {
+            op = Operation.valueOf(sop);
+        } catch (Exception err) {
+            Log.severe("Unable to parse operation: " + sop);
+            throw err;
         }
+        return parseLine(op, tokens);
     }
 
     private Polynucleotide createPoly(String seq) throws Exception {
@@ -204,199 +242,178 @@ public class ParseConstructionFile {
             //return parse Polynucleotide(seq, "", "", false, false, false);
         }
 
-        //If it's a plasmid
-        return new Polynucleotide(seq, true);
+        //If it's a plasmid, share it with any other file describing the same one
+        return PolynucleotidePool.getInstance().intern(new Polynucleotide(seq, true));
     }
 
-    //parseLine input (Operation, String)
-    private Step parseLine(Operation op, String lineNoOP) throws Exception {
+    /**
+     * How each operation's line reads: its inputs, then optionally a keyword
+     * and more inputs, then a parenthesized clause of fields
+     */
+    private static final Map<Operation, Grammar> GRAMMAR = new EnumMap<>(Operation.class);
+
+    static {
+        //pcr oligo1,oligo2 on template \t (size bp,product)
+        GRAMMAR.put(Operation.pcr, new Grammar(Shape.RANGES, "on", false, Shape.RANGES, true, 1, "product"));
+        //digest substrate with enzyme1,enzyme2 \t (fragment,product)
+        GRAMMAR.put(Operation.digest, new Grammar(Shape.NAME, "with", true, Shape.NAMES, false, 2, "fragment", "product"));
+        //ligate frag1,frag2 \t (product)
+        GRAMMAR.put(Operation.ligate, new Grammar(Shape.RANGES, null, false, null, false, 1, "product"));
+        //assemble frag1,frag2 \t (enzyme,product)
+        GRAMMAR.put(Operation.assemble, new Grammar(Shape.RANGES, null, false, null, false, 2, "enzyme", "product"));
+        //transform substrate \t (strain,antibiotic,product)
+        GRAMMAR.put(Operation.transform, new Grammar(Shape.NAME, null, false, null, false, 2, "strain", "antibiotic", "product"));
+        //blunting substrate \t (type,product)
+        GRAMMAR.put(Operation.blunting, new Grammar(Shape.NAME, null, false, null, false, 2, "type", "product"));
+    }
 
-        //Standardize
-        lineNoOP = lineNoOP.replaceAll("\\s+and\\s+", ",");
-        lineNoOP = lineNoOP.replace("/", ",");
+    /**
+     * A list of inputs is a single name, several names, or several names
+     * any of which may be a range
+     */
+    private enum Shape {
+        NAME,
+        NAMES,
+        RANGES
+    }
 
-        switch (op) {
+    private static final class Grammar {
+
+        private final Shape inputs;
+        private final String keyword;
+        private final boolean keywordRequired;
+        private final Shape more;
+        private final boolean sized;
+        private final int required;
+        private final String[] fields;
+
+        Grammar(Shape inputs, String keyword, boolean keywordRequired, Shape more, boolean sized, int required, String... fields) {
+            this.inputs = inputs;
+            this.keyword = keyword;
+            this.keywordRequired = keywordRequired;
+            this.more = more;
+            this.sized = sized;
+            this.required = required;
+            this.fields = fields;
+        }
+    }
 
-            case pcr://pcr oligo1,oligo2 on template \t (size bp,product) 
-                //Separate the oligos, templates, and product info
-                //First split between oligos+templates and product info
-                String[] parenPCR = lineNoOP.split("\\(");
-                //Then split the oligos from the templates
-                String[] oligoPlasmidPCR = parenPCR[0].split("\\s+on\\s+");
-
-                //trim and split oligos
-                //TODO:  This could be more explicit:  there are 2 and and only 2 oligos in PCR
-                String oligosPCR0 = oligoPlasmidPCR[0].trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",");
-                //evoke rangeInString to split oligos
-                String[] oligosPCR = rangeInString(oligosPCR0);
-
-                //identify product and its size (if available)
-                //eliminate ()
-                String sizeProductPCR = parenPCR[1].trim();
-                sizeProductPCR = sizeProductPCR.replaceAll("\\(", "");
-                sizeProductPCR = sizeProductPCR.replaceAll("\\)", "");
-
-                //split by "bp,"
-                String sizePCR;
-                String productPCR;
-                if (sizeProductPCR.contains("bp,")) {
-                    String[] spPCR = sizeProductPCR.split("bp,");
-                    sizePCR = spPCR[0].trim();
-                    productPCR = spPCR[1].trim();
-                } else {
-                    sizePCR = null;
-                    productPCR = sizeProductPCR.trim();
-                }
-                
-                //Convert sizePCR string to an integer
-                Integer size = null;
-                if(sizePCR != null) {
-                    size = Integer.parseInt(sizePCR);
-                }
+    private Step parseLine(Operation op, List<StepLexer.Token> tokens) throws Exception {
+        Grammar grammar = GRAMMAR.get(op);
+        if (grammar == null) {
+            throw new RuntimeException("Not implemented " + op);
+        }
 
-                //extract the list of templates
-                List<String> templateList = new ArrayList<>();
-                if (oligoPlasmidPCR.length > 1) {
-                    String templateStr = oligoPlasmidPCR[1].trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",");
-                    String[] templates = rangeInString(templateStr);
+        //Read the inputs, switching lists at the keyword, up to the clause
+        List<String> inputs = new ArrayList<>();
+        List<String> more = null;
+        List<String> current = inputs;
+        Shape shape = grammar.inputs;
+        int i = 1;
+        for (; i < tokens.size(); i++) {
+            StepLexer.Token token = tokens.get(i);
+            StepLexer.Type type = token.getType();
+            if (type == StepLexer.Type.OPEN) {
+                break;
+            }
+            if (type == StepLexer.Type.CLOSE) {
+                throw new IllegalArgumentException("Unmatched ) in " + op);
+            }
+            if (type == StepLexer.Type.AND) {
+                continue;
+            }
+            if (more == null && grammar.keyword != null && token.getText().equals(grammar.keyword)
+                    && (type == StepLexer.Type.ON || type == StepLexer.Type.WITH)) {
+                more = new ArrayList<>();
+                current = more;
+                shape = grammar.more;
+                continue;
+            }
+            if (type == StepLexer.Type.RANGE && shape == Shape.RANGES) {
+                expandRange(token.getText(), current);
+            } else {
+                current.add(token.getText());
+            }
+        }
+        checkShape(op, "inputs", grammar.inputs, inputs);
+        if (more == null) {
+            if (grammar.keywordRequired) {
+                throw new IllegalArgumentException(op + " needs '" + grammar.keyword + "'");
+            }
+            more = new ArrayList<>();
+        } else {
+            checkShape(op, grammar.keyword, grammar.more, more);
+        }
 
-                    for (String template : templates) {
-                        templateList.add(template);
+        //Read the fields of the clause
+        if (i == tokens.size()) {
+            throw new IllegalArgumentException(op + " needs a (" + String.join(",", grammar.fields) + ") clause");
+        }
+        List<String> fields = new ArrayList<>();
+        boolean closed = false;
+        for (i++; i < tokens.size() && !closed; i++) {
+            StepLexer.Token token = tokens.get(i);
+            switch (token.getType()) {
+                case CLOSE:
+                    closed = true;
+                    break;
+                case OPEN:
+                    throw new IllegalArgumentException("Nested ( in " + op);
+                case AND:
+                    break;
+                case SIZE:
+                    if (!grammar.sized || !fields.isEmpty()) {
+                        throw new IllegalArgumentException("Unexpected size " + token.getText() + " bp in " + op);
                     }
-                }
-
-                //evoke createPCR and return
-                return createPCR(
-                        oligosPCR,
-                        templateList,
-                        productPCR
-                        );
-
-            case digest://digest substrate with enzyme1,enzyme2 \t (product)
-
-                //split ()
-                String[] parenDig = lineNoOP.split("\\(");
-                //split oligo and enzyme
-                String[] oligoEnzyDig = parenDig[0].trim().split("\\s+with\\s+");
-                //extract oligos
-                String subDig = oligoEnzyDig[0].trim();
-                //extract enzyme
-                String enzDig = oligoEnzyDig[1].trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",");
-                String[] enzyDig = enzDig.split("\\,");
-                //extract product
-                String pdtsection = parenDig[1].replaceAll("\\(", "").replaceAll("\\)", "").trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",");
-                String[] pdtsplit = pdtsection.split(",");
-                String fragsel = pdtsplit[0];
-                String productDig = pdtsplit[1];
-                //evoke createDigest and return
-                return createDigest(
-                        subDig,
-                        enzyDig,
-                        fragsel,
-                        productDig
-                );
-
-            case ligate://ligate frag1,frag2 \t (product)
-
-                //split()
-                String[] segLig = lineNoOP.split("\\(");
-                //extract frag
-                String fragLig = segLig[0].trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",");
-                //split fragments
-                String[] fragsLig = rangeInString(fragLig);
-                //extract product
-                String productLig = segLig[1].replaceAll("\\(", "").replaceAll("\\)", "").trim();
-                //evoke createLigation and return
-                return createLigation(
-                        fragsLig,
-                        productLig
-                );
-
-            case transform://transform substrate \t (strain,antibiotic,product)
-
-                //split ()
-                String[] parenTrans = lineNoOP.split("\\(");
-                //extract substrate
-                String subTrans = parenTrans[0].trim();
-
-                //split strain, antibiotic, product(if there is)
-                String[] parenInTrans = parenTrans[1].replaceAll("\\(", "").replaceAll("\\)", "").trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",").split(",");
-                //extract strain, antibiotic
-                String strainTrans = parenInTrans[0].trim();
-                String antibioticTrans = parenInTrans[1].trim();
-
-                //extract product if there is one
-                String plasmidNameTrans = null;
-                if (parenInTrans.length > 2) {
-                    plasmidNameTrans = parenInTrans[2];
-                } else {
-                    plasmidNameTrans = subTrans;
-                }
-                //evoke createTransform and return
-                return createTransform(
-                        subTrans,
-                        strainTrans,
-                        antibioticTrans,
-                        plasmidNameTrans
-                );
-
-            case assemble://assemble frag1,frag2 \t (enzyme,product)
-
-                //split ()
-                String[] parenASB = lineNoOP.split("\\(");
-
-                //extract fragments
-                String fragASB = parenASB[0].trim().replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",");
-                //split fragments
-                String[] fragsASB = rangeInString(fragASB);
-
-                //split enzyme and product
-                String parenInASB = parenASB[1].replaceAll("\\(", "").replaceAll("\\)", "").trim();
-                String[] enzyProdASB = parenInASB.replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",").split(",");
-                //extract enzyme and product
-                String enzymeASB = enzyProdASB[0].trim();
-                String productASB = enzyProdASB[1].trim();
-
-                //evoke createAssemble and return
-                return createAssemble(
-                        fragsASB,
-                        enzymeASB,
-                        productASB
-                );
-
-            case blunting://blunting sub1 \t (type,product)
-
-                //split()
-                String[] parenBlu = lineNoOP.split("\\(");
-
-                //extract substrate
-                String subBlu = parenBlu[0].trim();
-
-                //split type and product
-                String parenInBlu = parenBlu[1].replaceAll("\\(", "").replaceAll("\\)", "").trim();
-                String[] typeProdBlu = parenInBlu.replaceAll(",\\s+", ",").replaceAll("\\s+,", ",").replaceAll("\\s+", ",").split(",");
-
-                //extract type
-                String typeBlu = typeProdBlu[0].trim();
-                //extract product
-                String productBlu = typeProdBlu[1].trim();
-
-                return createBlunting(
-                        subBlu,
-                        typeBlu,
-                        productBlu
-                );
+                    break;
+                default:
+                    fields.add(token.getText());
+            }
+        }
+        if (i < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected " + tokens.get(i).getText() + " after the clause of " + op);
+        }
+        if (fields.size() < grammar.required || fields.size() > grammar.fields.length) {
+            throw new IllegalArgumentException(op + " clause must be (" + String.join(",", grammar.fields) + "), found " + fields);
+        }
 
+        switch (op) {
+            case pcr:
+                return createPCR(inputs, more, fields.get(0));
+            case digest:
+                return createDigest(inputs.get(0), more, fields.get(0), fields.get(1));
+            case ligate:
+                return createLigation(inputs, fields.get(0));
+            case transform:
+                //The product is the substrate unless named
+                String plasmidName = fields.size() > 2 ? fields.get(2) : inputs.get(0);
+                return createTransform(inputs.get(0), fields.get(0), fields.get(1), plasmidName);
+            case assemble:
+                return createAssemble(inputs, fields.get(0), fields.get(1));
+            case blunting:
+                return createBlunting(inputs.get(0), fields.get(0), fields.get(1));
             default:
                 throw new RuntimeException("Not implemented " + op);
         }
     }
 
-    private Step createPCR(String[] oligos, List<String> templates, String product) {
-        return new PCR(oligos[0], oligos[1], templates, product);
+    private void checkShape(Operation op, String what, Shape shape, List<String> names) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException(op + " is missing its " + what);
+        }
+        if (shape == Shape.NAME && names.size() > 1) {
+            throw new IllegalArgumentException(op + " takes one name for its " + what + ", found " + names);
+        }
+    }
+
+    private Step createPCR(List<String> oligos, List<String> templates, String product) {
+        if (oligos.size() != 2) {
+            throw new IllegalArgumentException("pcr takes two oligos, found " + oligos);
+        }
+        return new PCR(oligos.get(0), oligos.get(1), templates, product);
     }
 
-    private Step createDigest(String substrate, String[] enzymes, String fragsel, String product) {
+    private Step createDigest(String substrate, List<String> enzymes, String fragsel, String product) {
         List<String> enzList = new ArrayList<>();
         for (String enz : enzymes) {
             String enzyme;
@@ -411,10 +428,8 @@ public class ParseConstructionFile {
         return new Digestion(substrate, enzList, fragSelect, product);
     }
 
-    private Step createLigation(String[] fragments, String product) {
-        List<String> frags = new ArrayList<>();
-        frags.addAll(Arrays.asList(fragments));
-        return new Ligation(frags, product);
+    private Step createLigation(List<String> fragments, String product) {
+        return new Ligation(fragments, product);
     }
 
     private Step createTransform(String substrate, String strain, String antibiotic, String product) {
@@ -422,7 +437,7 @@ public class ParseConstructionFile {
         return new Transformation(substrate, strain, ab, product);
     }
 
-    private Step createAssemble(String[] fragments, String enzyme, String product) {
+    private Step createAssemble(List<String> fragments, String enzyme, String product) {
         String ez;
         try {
             ez = enzyme;
@@ -441,54 +456,45 @@ public class ParseConstructionFile {
         return new Blunting(substrate, type, product);
     }
 
-    private String identifyRange(String input) throws Exception {
-
-        String[] startEnd = input.split("-");
-
-        String token1 = startEnd[0].trim();
-        String token2 = startEnd[1].trim();
+    /**
+     * Adds the names a range such as ca4238-ca4240 stands for to out: the
+     * first as written, then the base name with each later number.  Text
+     * that is not such a range is added as it is.
+     */
+    private void expandRange(String range, List<String> out) {
+        int dash = range.indexOf('-');
+        String token1 = range.substring(0, dash);
+        String token2 = range.substring(dash + 1);
+        int dash2 = token2.indexOf('-');
+        if (dash2 > -1) {
+            token2 = token2.substring(0, dash2);
+        }
 
         // Find the boundary, i, between the base name and the numbers
         int i;
-        for (i = 0; i < token1.length(); i++) {
+        for (i = 0; i < token1.length() && i < token2.length(); i++) {
             if (token1.charAt(i) != token2.charAt(i) || Character.isDigit(token1.charAt(i))) {
                 break;
             }
         }
 
-        // calculate the base name from the boundary
-        String baseName = token1.substring(0, i);
-        String output = token1;
-
-        // obtain the range values from the rest of the tokens, and add to the out list by generating strings in that range
+        // obtain the range values from the rest of the tokens
+        int startInt;
+        int endInt;
         try {
-            int startInt = Integer.parseInt(token1.substring(i, token1.length()));
-            int endInt = Integer.parseInt(token2.substring(i, token2.length()));
-            for (int j = startInt + 1; j <= endInt; j++) {
-                output = output + "," + baseName + j;
-            }
-        } catch (Exception e) {
-            return input;//original str
-            //throw new IllegalArgumentException("Invalid name range described. Must have same base name and only differ by integer values at the end.");
+            startInt = Integer.parseInt(token1.substring(i));
+            endInt = Integer.parseInt(token2.substring(i));
+        } catch (NumberFormatException e) {
+            out.add(range);
+            return;
         }
 
-        return output;
-    }
-
-    private String[] rangeInString(String in) throws Exception {
-
-        String[] parts = in.split(",");
-        String expand = null;
-        for (String str : parts) {
-            if (str.contains("-")) {
-                expand = expand + identifyRange(str) + ",";
-            } else {
-                expand = expand + str + ",";
-            }
+        // calculate the base name from the boundary and generate the names in the range
+        String baseName = token1.substring(0, i);
+        out.add(token1);
+        for (int j = startInt + 1; j <= endInt; j++) {
+            out.add(baseName + j);
         }
-        String result = expand.substring(4, expand.length() - 1);
-        String[] out = result.split(",");
-        return out;
     }
 
     public static void main(String[] args) throws Exception {
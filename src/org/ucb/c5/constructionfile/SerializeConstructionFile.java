@@ -91,6 +91,11 @@ public class SerializeConstructionFile {
                     }
                     sb.append("\t(").append(assem.getProduct()).append(")").append("\n");
                     break;
+                case blunting:
+                    Blunting blunt = (Blunting) astep;
+                    sb.append(op.toString()).append(" ").append(blunt.getSubstrate());
+                    sb.append("\t(").append(blunt.getTypes()).append(", ").append(blunt.getProduct()).append(")").append("\n");
+                    break;
             }
         }
         
@@ -0,0 +1,147 @@
+package org.ucb.c5.constructionfile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits one step line of a construction file into tokens in a single
+ * left-to-right scan.
+ *
+ * The first word is the operation.  After it, words are separated by any
+ * run of whitespace, commas and slashes, and the words on, with and and are
+ * keywords.  A word holding a dash is a range such as ca4238-ca4240.  The
+ * parenthesized clause is bracketed by OPEN and CLOSE tokens, and within it
+ * a size written 1550 bp or 1550bp is one SIZE token holding the digits.
+ */
+final class StepLexer {
+
+    enum Type {
+        OPERATION,
+        NAME,
+        RANGE,
+        ON,
+        WITH,
+        AND,
+        SIZE,
+        OPEN,
+        CLOSE
+    }
+
+    static final class Token {
+
+        private final Type type;
+        private final String text;
+
+        Token(Type type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        Type getType() {
+            return type;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + text;
+        }
+    }
+
+    private StepLexer() {
+    }
+
+    /**
+     * @param line one step, without its line break
+     * @return its tokens, starting with the OPERATION, lower-cased
+     */
+    static List<Token> lex(CharSequence line) {
+        List<Token> out = new ArrayList<>();
+        int n = line.length();
+        int depth = 0;
+        int i = 0;
+        while (i < n) {
+            char c = line.charAt(i);
+            if (isSeparator(c)) {
+                i++;
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+                out.add(new Token(Type.OPEN, "("));
+                i++;
+                continue;
+            }
+            if (c == ')') {
+                depth--;
+                out.add(new Token(Type.CLOSE, ")"));
+                i++;
+                continue;
+            }
+
+            //Read a word through to the next separator or parenthesis
+            int start = i;
+            boolean dash = false;
+            while (i < n && !isBreak(line.charAt(i))) {
+                dash |= line.charAt(i) == '-';
+                i++;
+            }
+            String word = line.subSequence(start, i).toString();
+
+            if (out.isEmpty()) {
+                out.add(new Token(Type.OPERATION, word.toLowerCase()));
+                continue;
+            }
+            if (depth > 0 && isDigits(word, 0, word.length() - 2) && word.endsWith("bp")) {
+                out.add(new Token(Type.SIZE, word.substring(0, word.length() - 2)));
+                continue;
+            }
+            if (depth > 0 && isDigits(word, 0, word.length())) {
+                //A number followed by the word bp is a size
+                int j = i;
+                while (j < n && Character.isWhitespace(line.charAt(j))) {
+                    j++;
+                }
+                if (j + 2 <= n && line.charAt(j) == 'b' && line.charAt(j + 1) == 'p'
+                        && (j + 2 == n || isBreak(line.charAt(j + 2)))) {
+                    out.add(new Token(Type.SIZE, word));
+                    i = j + 2;
+                    continue;
+                }
+            }
+            if (word.equals("on")) {
+                out.add(new Token(Type.ON, word));
+            } else if (word.equals("with")) {
+                out.add(new Token(Type.WITH, word));
+            } else if (word.equals("and")) {
+                out.add(new Token(Type.AND, word));
+            } else {
+                out.add(new Token(dash ? Type.RANGE : Type.NAME, word));
+            }
+        }
+        return out;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static boolean isBreak(char c) {
+        return c == '(' || c == ')' || isSeparator(c);
+    }
+
+    private static boolean isDigits(String word, int from, int to) {
+        if (to <= from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (word.charAt(i) < '0' || word.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
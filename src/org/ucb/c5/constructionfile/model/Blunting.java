@@ -1,6 +1,6 @@
 package org.ucb.c5.constructionfile.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 /**
  *
@@ -11,14 +11,14 @@ public class Blunting implements Step{
     private final String substrate;
     private final String types;
     private final String product;
+    private final List<String> inputs;
     
 
 public Blunting(String substrate, String types, String product) {
         this.substrate = substrate;
         this.types = types;
         this.product = product;
-        List<String> substrates = new ArrayList<>();
-        substrates.add(substrate);
+        this.inputs = Collections.singletonList(substrate);
 
     }
 
@@ -42,8 +42,6 @@ public String getSubstrate() {
 
     @Override
     public List<String> getInputs() {
-        List<String> inputs = new ArrayList<String>();
-        inputs.add(getSubstrate());
         return inputs;
     }
 }
\ No newline at end of file
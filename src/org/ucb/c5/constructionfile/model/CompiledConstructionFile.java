@@ -0,0 +1,215 @@
+package org.ucb.c5.constructionfile.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ConstructionFile with every name resolved once to an integer symbol.
+ *
+ * Each name used by the file, as a sequence, an input or a product, gets an
+ * id from 0 to getSymbolCount() - 1.  Steps keep their file order and are
+ * also listed per Operation; each step's inputs are an int[] of ids in the
+ * order of Step.getInputs(), so for a PCR the two oligos then the
+ * templates.  For each symbol the step making it, the steps using it and
+ * its sequence are looked up by id.  The int arrays returned are the
+ * compiled ones themselves, shared and not to be modified.
+ */
+public class CompiledConstructionFile {
+
+    private static final int[] NONE = new int[0];
+
+    private final ConstructionFile source;
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final Step[] steps;
+    private final int[] products;
+    private final int[][] inputs;
+    private final int[][] byOperation;
+    private final int[] producers;
+    private final int[][] consumers;
+    private final Polynucleotide[] sequences;
+
+    public CompiledConstructionFile(ConstructionFile source) {
+        this.source = source;
+        List<String> symbols = new ArrayList<>();
+        ids = new HashMap<>();
+        Map<String, Polynucleotide> provided = source.getSequences();
+        if (provided != null) {
+            for (String name : provided.keySet()) {
+                intern(name, symbols);
+            }
+        }
+
+        List<Step> stepList = source.getSteps();
+        int numSteps = stepList.size();
+        steps = stepList.toArray(new Step[numSteps]);
+        products = new int[numSteps];
+        inputs = new int[numSteps][];
+        int[] opCounts = new int[Operation.values().length];
+        for (int i = 0; i < numSteps; i++) {
+            List<String> in = steps[i].getInputs();
+            inputs[i] = new int[in.size()];
+            for (int j = 0; j < inputs[i].length; j++) {
+                inputs[i][j] = intern(in.get(j), symbols);
+            }
+            products[i] = intern(steps[i].getProduct(), symbols);
+            opCounts[steps[i].getOperation().ordinal()]++;
+        }
+        names = symbols.toArray(new String[symbols.size()]);
+
+        //Steps per operation, in file order
+        byOperation = new int[opCounts.length][];
+        for (int op = 0; op < opCounts.length; op++) {
+            byOperation[op] = new int[opCounts[op]];
+        }
+        int[] filled = new int[opCounts.length];
+        for (int i = 0; i < numSteps; i++) {
+            int op = steps[i].getOperation().ordinal();
+            byOperation[op][filled[op]++] = i;
+        }
+
+        //Producer and consumers of each symbol
+        producers = new int[names.length];
+        Arrays.fill(producers, -1);
+        int[] useCounts = new int[names.length];
+        for (int i = 0; i < numSteps; i++) {
+            if (producers[products[i]] < 0) {
+                producers[products[i]] = i;
+            }
+            for (int id : inputs[i]) {
+                useCounts[id]++;
+            }
+        }
+        consumers = new int[names.length][];
+        for (int id = 0; id < names.length; id++) {
+            consumers[id] = useCounts[id] == 0 ? NONE : new int[useCounts[id]];
+        }
+        int[] used = new int[names.length];
+        for (int i = 0; i < numSteps; i++) {
+            for (int id : inputs[i]) {
+                consumers[id][used[id]++] = i;
+            }
+        }
+
+        sequences = new Polynucleotide[names.length];
+        if (provided != null) {
+            for (Map.Entry<String, Polynucleotide> entry : provided.entrySet()) {
+                sequences[ids.get(entry.getKey())] = entry.getValue();
+            }
+        }
+    }
+
+    private int intern(String name, List<String> symbols) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    public ConstructionFile getSource() {
+        return source;
+    }
+
+    public String getPdtName() {
+        return source.getPdtName();
+    }
+
+    public int getSymbolCount() {
+        return names.length;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the id of name, or -1 if the file does not use it
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public int getStepCount() {
+        return steps.length;
+    }
+
+    public Step getStep(int step) {
+        return steps[step];
+    }
+
+    public Operation getOperation(int step) {
+        return steps[step].getOperation();
+    }
+
+    /**
+     * @return the indices of the steps performing op, in file order
+     */
+    public int[] getSteps(Operation op) {
+        return byOperation[op.ordinal()];
+    }
+
+    /**
+     * @return the id of the product of step
+     */
+    public int getProduct(int step) {
+        return products[step];
+    }
+
+    /**
+     * @return the ids of the inputs of step
+     */
+    public int[] getInputs(int step) {
+        return inputs[step];
+    }
+
+    /**
+     * @return the index of the first step making id, or -1 if none does
+     */
+    public int getProducer(int id) {
+        return producers[id];
+    }
+
+    /**
+     * @return the indices of the steps using id, in file order
+     */
+    public int[] getConsumers(int id) {
+        return consumers[id];
+    }
+
+    /**
+     * @return the sequence the file provides for id, or null
+     */
+    public Polynucleotide getSequence(int id) {
+        return sequences[id];
+    }
+
+    public static void main(String[] args) {
+        Map<String, Polynucleotide> seqs = new HashMap<>();
+        seqs.put("ca4238", new Polynucleotide("ccaaaACTAGTattatacctaggactgagctagctgtcaa"));
+        seqs.put("ca4239", new Polynucleotide("ctcagACTAGTgcaggttttagagctagaaatagcaagtt"));
+        seqs.put("pTargetF", new Polynucleotide("ttgacagctagctcagtcctaggtataatactagtcatcgccgcagcggtttcaggttttagagctagaaatagcaagttaaaataaggct", true));
+
+        List<Step> steps = new ArrayList<>();
+        steps.add(new PCR("ca4238", "ca4239", Arrays.asList("pTargetF"), "ipcr"));
+        steps.add(new Digestion("ipcr", Arrays.asList("SpeI", "DpnI"), 1, "spedig"));
+        steps.add(new Ligation(Arrays.asList("spedig"), "lig"));
+        steps.add(new Transformation("lig", "DH10B", Antibiotic.Spec, "pTarg"));
+        CompiledConstructionFile compiled = new CompiledConstructionFile(new ConstructionFile(steps, "pTarg", seqs));
+
+        for (int id = 0; id < compiled.getSymbolCount(); id++) {
+            System.out.println(id + " " + compiled.getName(id) + " made by step " + compiled.getProducer(id)
+                    + ", used by " + Arrays.toString(compiled.getConsumers(id))
+                    + (compiled.getSequence(id) == null ? "" : ", provided"));
+        }
+        for (int step : compiled.getSteps(Operation.pcr)) {
+            System.out.println("pcr inputs " + Arrays.toString(compiled.getInputs(step)));
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package org.ucb.c5.constructionfile.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -12,14 +12,14 @@ public class Digestion implements Step {
     private final List<String> enzymes;
     private final int fragSelection;
     private final String product;
+    private final List<String> inputs;
 
     public Digestion(String substrate, List<String> enzymes, int fragSelection, String product) {
         this.substrate = substrate;
         this.enzymes = enzymes;
         this.product = product;
         this.fragSelection = fragSelection;
-        List<String> substrates = new ArrayList<>();
-        substrates.add(substrate);
+        this.inputs = Collections.singletonList(substrate);
     }
     
     public List<String> getEnzymes() {
@@ -42,8 +42,6 @@ public class Digestion implements Step {
 
     @Override
     public List<String> getInputs() {
-        List<String> inputs = new ArrayList<String>();
-        inputs.add(getSubstrate()) ;
         return inputs;
     }
 
@@ -0,0 +1,327 @@
+package org.ucb.c5.constructionfile.model;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import org.ucb.c5.sequtils.IupacMask;
+
+/**
+ * Translates between Modifications and IDT modification codes, eg /5Biosg/,
+ * /3Biosg/ and /iBiosg/.
+ *
+ * IDT writes the same chemistry with a position prefix: 5 for the 5' end,
+ * 3 for the 3' end and i for internal.  Each Modifications value is stored
+ * once with its prefix-free name in an EnumMap; a trie of the prefixed codes
+ * is built from it at class load.  decode() reads an oligo such as
+ * /5Phos/CTAGT/iFluorT/GCA/3BHQ_1/ in one left-to-right scan, collecting the
+ * bases and each modification with its place.
+ */
+public final class ModificationCodec {
+
+    public enum Position {
+        FIVE_PRIME('5'),
+        THREE_PRIME('3'),
+        INTERNAL('i');
+
+        private final char prefix;
+
+        Position(char prefix) {
+            this.prefix = prefix;
+        }
+
+        public char getPrefix() {
+            return prefix;
+        }
+    }
+
+    private static final Map<Modifications, String> NAMES = new EnumMap<>(Modifications.class);
+    private static final Node ROOT = new Node();
+
+    static {
+        put(Modifications.phos5, "Phos");
+        put(Modifications.AmMC6, "AmMC6");
+        put(Modifications.AmMC12, "AmMC12");
+        put(Modifications.AmMC6T, "AmMC6T");
+        put(Modifications.UniAmM, "UniAmM");
+        put(Modifications.Biosg, "Biosg");
+        put(Modifications.BioK, "BioK");
+        put(Modifications.BiodT, "BiodT");
+        put(Modifications.BiotinTEG, "BiotinTEG");
+        put(Modifications.Dual_BT52, "2-Bio");
+        put(Modifications.PCBT, "PCBio");
+        put(Modifications.deSBIOTEG, "deSBioTEG");
+        put(Modifications.DTPA, "DTPA");
+        put(Modifications.ThioMC6_D, "ThioMC6-D");
+        put(Modifications.Hexynyl, "Hexynyl");
+        put(Modifications.OctdU, "5OctdU");
+        put(Modifications.Acryd, "Acryd");
+        put(Modifications.rApp, "rApp");
+        put(Modifications.AzideN, "AzideN");
+        put(Modifications.DigN, "DigN");
+        put(Modifications.ILink12, "ILink12");
+        put(Modifications.FAMN_56, "6-FAMN");
+        put(Modifications.FAM_56, "6-FAM");
+        put(Modifications.FluorT, "FluorT");
+        put(Modifications.CY3, "Cy3");
+        put(Modifications.Joen_56, "6-JOEN");
+        put(Modifications.CY5, "Cy5");
+        put(Modifications.TAMN, "6-TAMN");
+        put(Modifications.Maxn, "MAXN");
+        put(Modifications.TET, "TET");
+        put(Modifications.CY55, "Cy55");
+        put(Modifications.ROXN_56, "6-ROXN");
+        put(Modifications.TYE563, "TYE563");
+        put(Modifications.YakYel, "YakYel");
+        put(Modifications.HEX1, "HEX");
+        put(Modifications.TEX615, "TEX615");
+        put(Modifications.TYE665, "TYE665");
+        put(Modifications.TYE705, "TYE705");
+        put(Modifications.SUN, "SUN");
+        put(Modifications.ATTO488N, "ATTO488N");
+        put(Modifications.ATTO532N, "ATTO532N");
+        put(Modifications.ATTO55ON, "ATTO550N");
+        put(Modifications.ATTO565N, "ATTO565N");
+        put(Modifications.ATTO101N, "RHO101N");
+        put(Modifications.ATTO590N, "ATTO590N");
+        put(Modifications.ATTO633N, "ATTO633N");
+        put(Modifications.ATTO647NN, "ATTO647NN");
+        put(Modifications.Alex488N, "Alex488N");
+        put(Modifications.Alex532N, "Alex532N");
+        put(Modifications.Alex456N, "Alex546N");
+        put(Modifications.Alex594N, "Alex594N");
+        put(Modifications.Alex647N, "Alex647N");
+        put(Modifications.Alex660N, "Alex660N");
+        put(Modifications.Alex750N, "Alex750N");
+        put(Modifications.IRD700, "IRD700");
+        put(Modifications.IRD800, "IRD800");
+        put(Modifications.IRD800CWN, "IRD800CWN");
+        put(Modifications.RhoG_XN, "RhoG-XN");
+        put(Modifications.RhoR_XN, "RhoR-XN");
+        put(Modifications.TAMK, "5-TAMK");
+        put(Modifications.FAMK_6, "6-FAMK");
+        put(Modifications.TexRd_XN, "TexRd-XN");
+        put(Modifications.LtC640N, "LtC640N");
+        put(Modifications.Dy750N, "Dy750N");
+        put(Modifications.IABKFQ, "IABkFQ");
+        put(Modifications.IAbRQ, "IAbRQ");
+        put(Modifications.SpC3, "SpC3");
+        put(Modifications.dSp, "dSp");
+        put(Modifications.SpPC, "SpPC");
+        put(Modifications.Sp9, "Sp9");
+        put(Modifications.Sp18, "Sp18");
+        put(Modifications.AmPr, "2AmPr");
+        put(Modifications.Br_dU, "5Br-dU");
+        put(Modifications.deoxyU, "deoxyU");
+        put(Modifications.Amda, "AmdA");
+        put(Modifications.deoxyI, "deoxyI");
+        put(Modifications.HydMe_dc, "5HydMe-dC");
+        put(Modifications.isodG, "isodG");
+        put(Modifications.Me_isodC, "Me-isodC");
+        put(Modifications.InvddT, "InvddT");
+        put(Modifications.Me_dc, "Me-dC");
+        put(Modifications.Nitlnd, "5NitInd");
+        put(Modifications.Super_dt, "Super-dT");
+        put(Modifications.Super_dg, "Super-dG");
+
+        for (Map.Entry<Modifications, String> entry : NAMES.entrySet()) {
+            for (Position pos : Position.values()) {
+                ROOT.insert(pos.getPrefix() + entry.getValue(), entry.getKey(), pos);
+            }
+        }
+    }
+
+    private ModificationCodec() {
+    }
+
+    private static void put(Modifications mod, String name) {
+        NAMES.put(mod, name);
+    }
+
+    /**
+     * @return the IDT code for mod at pos, eg /3Biosg/
+     * @throws IllegalArgumentException if mod has no IDT code, as for
+     * hydroxyl and circular
+     */
+    public static String encode(Modifications mod, Position pos) {
+        String name = NAMES.get(mod);
+        if (name == null) {
+            throw new IllegalArgumentException("No IDT code for " + mod);
+        }
+        return "/" + pos.getPrefix() + name + "/";
+    }
+
+    /**
+     * @return how an end is drawn: nothing for hydroxyl or circular, p for a
+     * phosphate, otherwise the IDT code
+     */
+    public static String display(Modifications mod, Position pos) {
+        if (mod == null || mod == Modifications.hydroxyl || mod == Modifications.circular) {
+            return "";
+        }
+        if (mod == Modifications.phos5) {
+            return "p";
+        }
+        return encode(mod, pos);
+    }
+
+    /**
+     * Reads an oligo in IDT notation.  5' codes must come before the first
+     * base and 3' codes after the last; anything between /.../ that is not
+     * a known code, and any character that is not an IUPAC base, is an
+     * error.
+     *
+     * @param oligo eg /5Phos/CTAGTttgacggcta
+     * @return the bases and modifications found
+     * @throws IllegalArgumentException if the text cannot be read
+     */
+    public static Decoded decode(CharSequence oligo) {
+        int len = oligo.length();
+        char[] bases = new char[len];
+        int numBases = 0;
+        Modifications mod5 = Modifications.hydroxyl;
+        Modifications mod3 = Modifications.hydroxyl;
+        int[] internalAt = new int[0];
+        Modifications[] internalMods = new Modifications[0];
+        int numInternal = 0;
+
+        int i = 0;
+        while (i < len) {
+            char c = oligo.charAt(i);
+            if (c != '/') {
+                if (IupacMask.mask(c) == 0) {
+                    throw new IllegalArgumentException("Oligo has non-DNA sequence:\n" + oligo);
+                }
+                if (mod3 != Modifications.hydroxyl) {
+                    throw new IllegalArgumentException("Bases follow a 3' modification in:\n" + oligo);
+                }
+                bases[numBases++] = c;
+                i++;
+                continue;
+            }
+
+            //Walk the trie to the closing slash
+            Node node = ROOT;
+            int j = i + 1;
+            while (j < len && oligo.charAt(j) != '/' && node != null) {
+                node = node.child(oligo.charAt(j));
+                j++;
+            }
+            if (j >= len || node == null || node.mod == null) {
+                throw new IllegalArgumentException("Unknown modification code in:\n" + oligo);
+            }
+            switch (node.pos) {
+                case FIVE_PRIME:
+                    if (numBases > 0 || mod5 != Modifications.hydroxyl) {
+                        throw new IllegalArgumentException("5' modification is not at the 5' end of:\n" + oligo);
+                    }
+                    mod5 = node.mod;
+                    break;
+                case THREE_PRIME:
+                    if (mod3 != Modifications.hydroxyl) {
+                        throw new IllegalArgumentException("More than one 3' modification in:\n" + oligo);
+                    }
+                    mod3 = node.mod;
+                    break;
+                case INTERNAL:
+                    if (numInternal == internalAt.length) {
+                        internalAt = Arrays.copyOf(internalAt, Math.max(4, numInternal * 2));
+                        internalMods = Arrays.copyOf(internalMods, internalAt.length);
+                    }
+                    internalAt[numInternal] = numBases;
+                    internalMods[numInternal] = node.mod;
+                    numInternal++;
+                    break;
+            }
+            i = j + 1;
+        }
+        return new Decoded(new String(bases, 0, numBases), mod5, mod3,
+                Arrays.copyOf(internalAt, numInternal), Arrays.copyOf(internalMods, numInternal));
+    }
+
+    /**
+     * What decode() found in an oligo
+     */
+    public static final class Decoded {
+
+        private final String sequence;
+        private final Modifications mod5;
+        private final Modifications mod3;
+        private final int[] internalAt;
+        private final Modifications[] internalMods;
+
+        Decoded(String sequence, Modifications mod5, Modifications mod3, int[] internalAt, Modifications[] internalMods) {
+            this.sequence = sequence;
+            this.mod5 = mod5;
+            this.mod3 = mod3;
+            this.internalAt = internalAt;
+            this.internalMods = internalMods;
+        }
+
+        public String getSequence() {
+            return sequence;
+        }
+
+        public Modifications getMod5() {
+            return mod5;
+        }
+
+        public Modifications getMod3() {
+            return mod3;
+        }
+
+        public int getInternalCount() {
+            return internalAt.length;
+        }
+
+        /**
+         * @return the number of bases before the index'th internal
+         * modification
+         */
+        public int getInternalPosition(int index) {
+            return internalAt[index];
+        }
+
+        public Modifications getInternalModification(int index) {
+            return internalMods[index];
+        }
+    }
+
+    /**
+     * Trie node over the ASCII characters of the codes
+     */
+    private static final class Node {
+
+        private Node[] children;
+        private Modifications mod;
+        private Position pos;
+
+        Node child(char c) {
+            return c < 128 && children != null ? children[c] : null;
+        }
+
+        void insert(String code, Modifications mod, Position pos) {
+            Node node = this;
+            for (int i = 0; i < code.length(); i++) {
+                char c = code.charAt(i);
+                if (node.children == null) {
+                    node.children = new Node[128];
+                }
+                if (node.children[c] == null) {
+                    node.children[c] = new Node();
+                }
+                node = node.children[c];
+            }
+            node.mod = mod;
+            node.pos = pos;
+        }
+    }
+
+    public static void main(String[] args) {
+        Decoded oligo = decode("/5Phos/CTAGTttg/iFluorT/acggcta/3Biosg/");
+        System.out.println(oligo.getSequence() + " 5':" + oligo.getMod5() + " 3':" + oligo.getMod3());
+        for (int i = 0; i < oligo.getInternalCount(); i++) {
+            System.out.println("internal " + oligo.getInternalModification(i) + " after base " + oligo.getInternalPosition(i));
+        }
+        System.out.println(encode(Modifications.FAM_56, Position.FIVE_PRIME) + " " + encode(Modifications.FAM_56, Position.THREE_PRIME));
+    }
+}
@@ -7,6 +7,7 @@
 package org.ucb.c5.constructionfile.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -19,6 +20,7 @@ public class PCR implements Step {
     private final String oligo2;
     private final List<String> templates;
     private final String product;
+    private final List<String> inputs;
     //Removed size from PCR class
 
     
@@ -29,6 +31,11 @@ public class PCR implements Step {
         this.templates = templates;
         this.product = product;
 
+        List<String> names = new ArrayList<>();
+        names.add(oligo1);
+        names.add(oligo2);
+        names.addAll(templates);
+        this.inputs = Collections.unmodifiableList(names);
     }
 
     public String getOligo1() {
@@ -50,12 +57,6 @@ public class PCR implements Step {
 
     @Override
     public List<String> getInputs() {
-        List<String> inputs = new ArrayList<String>();
-        inputs.add(oligo1);
-        inputs.add(oligo2);
-        for (String addingTemplates: templates) {
-            inputs.add(addingTemplates);
-        }
         return inputs;
     }
 
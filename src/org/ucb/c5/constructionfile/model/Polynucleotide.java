@@ -1,11 +1,18 @@
 package org.ucb.c5.constructionfile.model;
 
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.ucb.c5.sequtils.CanonicalForm;
+import org.ucb.c5.sequtils.ComplementTable;
+import org.ucb.c5.sequtils.PackedSequence;
 import org.ucb.c5.sequtils.PolyRevComp;
 import org.ucb.c5.sequtils.SequenceUtils;
+import org.ucb.c5.sequtils.SequenceViews;
+import org.ucb.c5.sequtils.SequenceViews.CircularView;
 
 /**
  * A Polynucleotide models the chemical entity described by that term. It is
@@ -21,7 +28,19 @@ import org.ucb.c5.sequtils.SequenceUtils;
  */
 public class Polynucleotide {
 
-    private final String sequence;
+    //Bases are held 2 bits apiece; the String form is decoded on demand
+    private final PackedSequence sequence;
+    private volatile SoftReference<String> decoded;
+
+    //Derived values, built on first use.  The instance is immutable, so a
+    //race at worst computes one of them twice.
+    private volatile SoftReference<String> canonical;
+    private volatile long contentHash;
+    private volatile long exactHash;
+    private volatile SoftReference<String> forwardStrand;
+    private volatile SoftReference<String> bottomStrand;
+    private volatile SoftReference<Polynucleotide> reverseComplement;
+    private volatile int lengthWithOverhangs = -1;
 
     /*
      The ext5 variable corresponds to the lefthand side
@@ -54,6 +73,23 @@ public class Polynucleotide {
      * @param mod_ext5
      */
     public Polynucleotide(String sequence, String ext5, String ext3, boolean isDoubleStranded, boolean isRNA, boolean isCircular, Modifications mod_ext5, Modifications mod_ext3) {
+        this(sequence == null ? null : new PackedSequence(sequence), ext5, ext3, isDoubleStranded, isRNA, isCircular, mod_ext5, mod_ext3);
+    }
+
+    /**
+     * Full Constructor taking an already packed sequence, for code that
+     * derives one sequence from another without decoding it
+     *
+     * @param sequence
+     * @param ext5
+     * @param ext3
+     * @param isDoubleStranded
+     * @param isRNA
+     * @param isCircular
+     * @param mod_ext5
+     * @param mod_ext3
+     */
+    public Polynucleotide(PackedSequence sequence, String ext5, String ext3, boolean isDoubleStranded, boolean isRNA, boolean isCircular, Modifications mod_ext5, Modifications mod_ext3) {
         this.sequence = sequence; 
         this.ext5 = ext5;
         this.ext3 = ext3;
@@ -97,7 +133,30 @@ public class Polynucleotide {
     }
     
     
+    /**
+     * Decodes the packed sequence.  The String is cached softly, so repeated
+     * calls are cheap but the garbage collector may reclaim it under memory
+     * pressure.
+     *
+     * @return the sequence, excluding the overhangs
+     */
     public String getSequence() {
+        if (sequence == null) {
+            return null;
+        }
+        SoftReference<String> ref = decoded;
+        String out = ref == null ? null : ref.get();
+        if (out == null) {
+            out = sequence.toString();
+            decoded = new SoftReference<>(out);
+        }
+        return out;
+    }
+
+    /**
+     * @return the 2-bit packed sequence, for processing without decoding
+     */
+    public PackedSequence getPackedSequence() {
         return sequence;
     }
 
@@ -130,368 +189,341 @@ public class Polynucleotide {
         return mod_ext5 == Modifications.circular;
     }
 
+    /**
+     * @return the top strand read 5' to 3', including any 5' overhangs it
+     * carries; computed once and cached softly
+     */
     public String getForwardStrand() {
-        StringBuilder out = new StringBuilder();
-        if (!ext5.startsWith("-")) {
-            out.append(ext5);
+        SoftReference<String> ref = forwardStrand;
+        String out = ref == null ? null : ref.get();
+        if (out == null) {
+            StringBuilder sb = new StringBuilder();
+            if (!ext5.startsWith("-")) {
+                sb.append(ext5);
+            }
+            sb.append(getSequence());
+            if (!ext3.startsWith("-")) {
+                sb.append(ext3);
+            }
+            out = sb.toString();
+            forwardStrand = new SoftReference<>(out);
         }
-        out.append(this.sequence);
-        if (!ext3.startsWith("-")) {
-            out.append(ext3);
+        return out;
+    }
+
+    /**
+     * @return the bottom strand read 5' to 3', including its overhangs; the
+     * forward strand of getReverseComplement(), computed once and cached
+     * softly
+     */
+    public String getBottomStrand() {
+        SoftReference<String> ref = bottomStrand;
+        String out = ref == null ? null : ref.get();
+        if (out == null) {
+            out = getReverseComplement().getForwardStrand();
+            bottomStrand = new SoftReference<>(out);
         }
-        return out.toString();
+        return out;
     }
 
-    public String ModtoString(Modifications mod) {
+    /**
+     * The same molecule written from its other end.  Computed once and
+     * cached softly; the result's own reverse complement is this instance.
+     *
+     * @return the reverse complement
+     */
+    public Polynucleotide getReverseComplement() {
+        SoftReference<Polynucleotide> ref = reverseComplement;
+        Polynucleotide out = ref == null ? null : ref.get();
+        if (out == null) {
+            out = PolyRevComp.flip(this);
+            out.reverseComplement = new SoftReference<>(this);
+            reverseComplement = new SoftReference<>(out);
+        }
+        return out;
+    }
 
-        String modS = mod.name();
-
-        if (modS == "hydroxyl") {
-            modS = "";
-
-        } else if (modS == "phos5") {
-            modS = "p";
-
-        } else if (!(modS == "hydroxyl")) {
-
-            switch (modS) {
-                case "AmMC6":
-                    modS = "/5AmMC6/";
-                    break;
-                case "AmMC12":
-                    modS = "/5AmMC12/";
-                    break;
-
-                case "AmMC6T":
-                    modS = "/5AmMC6T/";
-                    break;
-                case "UniAmM":
-                    modS = "/5UniAmM/";
-                    break;
-                case "Biosg":
-                    modS = "/5Biosg/";
-                    break;
-                case "BioK":
-                    modS = "/5BioK/";
-                    break;
-                case "BiodT":
-                    modS = "/5BiodT/";
-                    break;
-                case "BiotinTEG":
-                    modS = "/5BiotinTEG/";
-                    break;
-                case "Dual_BT52":
-                    modS = "/52-Bio/";
-                    break;
-                case "PCBT":
-                    modS = "/5PCBio/";
-                    break;
-                case "deSBIOTEG":
-                    modS = "/5deSBioTEG/";
-                    break;
-                case "DTPA":
-                    modS = "/5DTPA/";
-                    break;
-                case "ThioMC6_D":
-                    modS = "/5ThioMC6-D/";
-                    break;
-                case "Hexynyl":
-                    modS = "/5Hexynyl/";
-                    break;
-                case "OctdU":
-                    modS = "/55OctdU/";
-                    break;
-                case "Acryd":
-                    modS = "/5Acryd/";
-                    break;
-                case "rApp":
-                    modS = "/5rApp/";
-                    break;
-                case "AzideN":
-                    modS = "/5AzideN/";
-                    break;
-                case "DigN":
-                    modS = "/5DigN/";
-                    break;
-                case "ILink12":
-                    modS = "/5ILink12/";
-                    break;
-                case "FAMN_56":
-                    modS = "/56-FAMN/";
-                    break;
-                case "FAM_56":
-                    modS = "/56-FAM/";
-                    break;
-                case "FluorT":
-                    modS = "/5FluorT/";
-                    break;
-                case "CY3":
-                    modS = "/5Cy3/";
-                    break;
-                case "Joen_56":
-                    modS = "/56-JOEN/";
-                    break;
-                case "CY5":
-                    modS = "/5Cy5/";
-                    break;
-                case "TAMN":
-                    modS = "/56-TAMN/";
-                    break;
-                case "Maxn":
-                    modS = "/5MAXN/";
-                    break;
-                case "TET":
-                    modS = "/5TET/";
-                    break;
-                case "CY55":
-                    modS = "/5Cy55/";
-                    break;
-                case "ROXN_56":
-                    modS = "/56-ROXN/";
-                    break;
-                case "TYE563":
-                    modS = "/5TYE563/";
-                    break;
-                case "YakYel":
-                    modS = "/5YakYel/";
-                    break;
-                case "HEX1":
-                    modS = "/5HEX/";
-                    break;
-                case "TEX615":
-                    modS = "/5TEX615/";
-                    break;
-                case "TYE665":
-                    modS = "/5TYE665/";
-                    break;
-                case "TYE705":
-                    modS = "/5TYE705/";
-                    break;
-                case "SUN":
-                    modS = "/5SUN/";
-                    break;
-                case "ATTO488N":
-                    modS = "/5ATTO488N/";
-                    break;
-                case "ATTO532N":
-                    modS = "/5ATTO532N/";
-                    break;
-                case "ATTO55ON":
-                    modS = "/5ATTO550N/";
-                    break;
-                case "ATTO565N":
-                    modS = "/5ATTO565N/";
-                    break;
-                case "ATTO101N":
-                    modS = "/5RHO101N/";
-                    break;
-                case "ATTO590N":
-                    modS = "/5ATTO590N/";
-                    break;
-                case "ATTO633N":
-                    modS = "/5ATTO633N/";
-                    break;
-                case "ATTO647NN":
-                    modS = "/5ATTO647NN/";
-                    break;
-                case "Alex488N":
-                    modS = "/5Alex488N/";
-                    break;
-                case "Alex532N":
-                    modS = "/5Alex532N/";
-                    break;
-                case "Alex456N":
-                    modS = "/5Alex546N/";
-                    break;
-                case "Alex594N":
-                    modS = "/5Alex594N/";
-                    break;
-                case "Alex647N":
-                    modS = "/5Alex647N/";
-                    break;
-                case "Alex660N":
-                    modS = "/5Alex660N/";
-                    break;
-                case "Alex750N":
-                    modS = "/5Alex750N/";
-                    break;
-                case "IRD700":
-                    modS = "/5IRD700/";
-                    break;
-                case "IRD800":
-                    modS = "/5IRD800/";
-                    break;
-                case "IRD800CWN":
-                    modS = "/5IRD800CWN/";
-                    break;
-                case "RhoG_XN":
-                    modS = "/5RhoG-XN/";
-                    break;
-                case "RhoR_XN":
-                    modS = "/5RhoR-XN/";
-                    break;
-                case "TAMK":
-                    modS = "/55-TAMK/";
-                    break;
-                case "FAMK_6":
-                    modS = "/56-FAMK/";
-                    break;
-                case "TexRd_XN":
-                    modS = "/5TexRd-XN/";
-                    break;
-                case "LtC640N":
-                    modS = "/5LtC640N/";
-                    break;
-                case "Dy750N":
-                    modS = "/5Dy750N/";
-                    break;
-                case "IABKFQ":
-                    modS = "/5IABkFQ/";
-                    break;
-                case "IAbRQ":
-                    modS = "/5IAbRQ/";
-                    break;
-                case "SpC3":
-                    modS = "/5SpC3/";
-                    break;
-                case "dSp":
-                    modS = "/5dSp/";
-                    break;
-                case "SpPC":
-                    modS = "/5SpPC/";
-                    break;
-                case "Sp9":
-                    modS = "/5Sp9/";
-                    break;
-                case "Sp18":
-                    modS = "/5Sp18/";
-                    break;
-                case "AmPr":
-                    modS = "/52AmPr/";
-                    break;
-                case "Br_dU":
-                    modS = "/55Br-dU/";
-                    break;
-                case "deoxyU":
-                    modS = "5deoxyU";
-                    break;
-                case "Amda":
-                    modS = "/5AmdA/";
-                    break;
-                case "deoxyI":
-                    modS = "/5deoxyI/";
-                    break;
-                case "HydMe_dc":
-                    modS = "/55HydMe-dC/";
-                    break;
-                case "isodG":
-                    modS = "/5isodG/";
-                    break;
-                case "Me_isodC":
-                    modS = "/5Me-isodC/";
-                    break;
-                case "InvddT":
-                    modS = "/5InvddT/";
-                    break;
-                case "Me_dc":
-                    modS = "/5Me-dC/";
-                    break;
-                case "Nitlnd":
-                    modS = "/55NitInd/";
-                    break;
-                case "Super_dt":
-                    modS = "/5Super-dT/";
-                    break;
-                case "Super_dg":
-                    modS = "/5Super-dG/";
-                    break;
-            }
+    /**
+     * @return the number of base positions spanned by either strand,
+     * counting overhangs on both ends
+     */
+    public int getLengthWithOverhangs() {
+        int out = lengthWithOverhangs;
+        if (out < 0) {
+            out = (sequence == null ? 0 : sequence.length())
+                    + ext5.length() - (ext5.startsWith("-") ? 1 : 0)
+                    + ext3.length() - (ext3.startsWith("-") ? 1 : 0);
+            lengthWithOverhangs = out;
         }
+        return out;
+    }
 
-        return modS;
+    /**
+     * @return the bottom strand under sequence, read 3' to 5' in the same
+     * direction as the top strand, without copying it
+     */
+    public CharSequence getComplementView() {
+        return SequenceViews.complement(sequence);
+    }
 
+    /**
+     * @return the bottom strand under sequence, read 5' to 3', without
+     * copying it
+     */
+    public CharSequence getReverseComplementView() {
+        return SequenceViews.reverseComplement(sequence);
     }
 
-    public String toString() {
-        String separator = "-";
+    /**
+     * @return the sequence as a ring whose windows may cross the origin
+     * @throws IllegalStateException if this molecule is not circular
+     */
+    public CircularView getCircularView() {
+        if (!isCircular()) {
+            throw new IllegalStateException("Polynucleotide is not circular");
+        }
+        return SequenceViews.circular(sequence);
+    }
 
-        String out = "";
+    /**
+     * The sequence as it would be written for either reading of this
+     * molecule: the least rotation over both strands for a circular DNA,
+     * the lesser of the two orientations for a linear double-stranded one.
+     * Upper case, since lower case is only annotation.
+     *
+     * @return a key that is equal for equal molecules
+     */
+    public String getCanonicalForm() {
+        SoftReference<String> ref = canonical;
+        String out = ref == null ? null : ref.get();
+        if (out == null) {
+            out = buildCanonicalForm();
+            canonical = new SoftReference<>(out);
+        }
+        return out;
+    }
 
+    /**
+     * @return a 64-bit hash of the canonical form, computed once
+     */
+    public long getContentHash() {
+        long hash = contentHash;
+        if (hash == 0) {
+            hash = CanonicalForm.hash64(getCanonicalForm());
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * @return a 64-bit hash of exactly this molecule, orientation, origin
+     * and case included, unlike getContentHash; computed once from the
+     * packed sequence without decoding it
+     */
+    public long getExactHash() {
+        long hash = exactHash;
+        if (hash == 0) {
+            String ends = isDoubleStranded + "|" + isRNA + "|" + isCircular + "|" + ext5 + "|" + ext3
+                    + "|" + mod_ext5 + "|" + mod_ext3;
+            hash = CanonicalForm.hash64(ends) * 31 + (sequence == null ? 0 : sequence.hash64());
+            exactHash = hash;
+        }
+        return hash;
+    }
+
+    private String buildCanonicalForm() {
+        String seq = sequence == null ? "" : getSequence();
+        String end5 = ext5 == null ? "" : ext5;
+        String end3 = ext3 == null ? "" : ext3;
+        String kind = (isDoubleStranded ? "ds" : "ss") + (isRNA ? "RNA" : "DNA");
+        if (isCircular()) {
+            return kind + "|circular|" + CanonicalForm.circular(seq, isDoubleStranded);
+        }
+        String forward = kind + "|" + end5.toUpperCase() + "|" + seq.toUpperCase() + "|" + end3.toUpperCase()
+                + "|" + mod_ext5 + "|" + mod_ext3;
+
+        //Only a duplex whose every base and overhang has a complement can be
+        //read from the other end
+        if (!isDoubleStranded || sequence == null || !ComplementTable.hasComplement(seq)
+                || !hasComplement(end5) || !hasComplement(end3)) {
+            return forward;
+        }
+        Polynucleotide rc = getReverseComplement();
+        String flipped = kind + "|" + rc.ext5.toUpperCase() + "|" + rc.getSequence().toUpperCase() + "|" + rc.ext3.toUpperCase()
+                + "|" + rc.mod_ext5 + "|" + rc.mod_ext3;
+        return flipped.compareTo(forward) < 0 ? flipped : forward;
+    }
+
+    /**
+     * @return true if the letters of an overhang, past any leading "-",
+     * all have complements
+     */
+    private static boolean hasComplement(String ext) {
+        return ComplementTable.hasComplement(ext.startsWith("-") ? ext.substring(1) : ext);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Polynucleotide)) {
+            return false;
+        }
+        Polynucleotide other = (Polynucleotide) o;
+        return getContentHash() == other.getContentHash()
+                && getCanonicalForm().equals(other.getCanonicalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = getContentHash();
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return how mod is drawn on a 5' end: nothing for hydroxyl, p for a
+     * phosphate, otherwise its IDT code
+     */
+    public String ModtoString(Modifications mod) {
+        return ModificationCodec.display(mod, ModificationCodec.Position.FIVE_PRIME);
+    }
+
+    /**
+     * Draws the molecule to out as it is built, without assembling the
+     * drawing in memory first.  With RenderOptions.DEFAULT the output is the
+     * same as toString().
+     *
+     * @param out where to write, eg a Writer or StringBuilder
+     * @param options layout, line width and ruler
+     * @throws IOException if out does
+     */
+    public void render(Appendable out, RenderOptions options) throws IOException {
+        String separator = "-";
         String mod_5;
         String mod_3;
 
         if (this.mod_ext3 == Modifications.circular | this.mod_ext5 == Modifications.circular | this.isCircular == true) {
             separator = "...";
-             mod_5 = "";
-             mod_3 = "";
-        }else{
-            mod_5 = ModtoString(this.mod_ext5);
-            mod_3 = ModtoString(this.mod_ext3);
+            mod_5 = "";
+            mod_3 = "";
+        } else {
+            mod_5 = ModificationCodec.display(this.mod_ext5, ModificationCodec.Position.FIVE_PRIME);
+            mod_3 = ModificationCodec.display(this.mod_ext3, ModificationCodec.Position.THREE_PRIME);
         }
+        String seq = getSequence();
 
-        
-        out += "5'" + separator;
+        RenderRow top = new RenderRow();
+        top.add("5'").add(separator);
         if (this.ext5.startsWith("-")) {
-            for (int i = 0; i < this.ext5.length() - 1; i++) {
-                out += " ";
-            }
-            out += mod_5;
-
+            top.pad(this.ext5.length() - 1).add(mod_5);
         } else {
-            out += mod_5 + this.ext5;
+            top.add(mod_5).add(this.ext5);
         }
-
-        out += this.sequence;
-
+        int seqStart = top.length();
+        top.add(seq);
         if (!this.ext3.startsWith("-")) {
-            for (int i = 0; i < this.ext3.length(); i++) {
-                out += " ";
-            }
+            top.pad(this.ext3.length());
         } else {
-            out += this.ext3.substring(1);
+            top.add(this.ext3.substring(1));
         }
 
-        if (this.isDoubleStranded == false) {
-            out += "-3'";
-            return out;
+        RenderRow[] rows;
+        if (this.isDoubleStranded == false || options.getLayout() == RenderOptions.Layout.SINGLE_STRAND) {
+            top.add("-3'");
+            rows = new RenderRow[]{top};
+        } else {
+            top.add(separator).add("3'");
+
+            //Do the other strand
+            RenderRow bottom = new RenderRow();
+            bottom.add("3'").add(separator).pad(mod_5.length());
+            if (!this.ext5.startsWith("-")) {
+                bottom.pad(this.ext5.length());
+            } else {
+                bottom.add(SequenceViews.complement(this.ext5.substring(1)));
+            }
+            bottom.add(SequenceViews.complement(seq));
+            if (this.ext3.startsWith("-")) {
+                bottom.add(mod_3).pad(this.ext3.length() - 1);
+            } else {
+                bottom.add(SequenceViews.complement(this.ext3)).add(mod_3);
+            }
+            bottom.add(separator).add("5'");
+            rows = new RenderRow[]{top, bottom};
         }
 
-        out += separator + "3'\n";
-
-        //Do the other strand
-        out += "3'" + separator;
-
-        if (!(this.mod_ext5 == Modifications.hydroxyl | this.mod_ext5 == Modifications.circular)) {
-            for (int i = 0; i < mod_5.length(); i++) {
-                out += " ";
+        //A single-strand drawing has no trailing newline, as before
+        if (options.getLineWidth() == 0 && !options.hasRuler()) {
+            for (RenderRow row : rows) {
+                row.appendTo(out, 0, row.length());
+                if (rows.length > 1) {
+                    out.append('\n');
+                }
             }
+            return;
         }
 
-        if (!this.ext5.startsWith("-")) {
-            for (int i = 0; i < this.ext5.length(); i++) {
-                out += " ";
+        int columns = 0;
+        for (RenderRow row : rows) {
+            columns = Math.max(columns, row.length());
+        }
+        int width = options.getLineWidth() > 0 ? options.getLineWidth() : columns;
+        for (int from = 0; from < columns; from += width) {
+            int to = Math.min(columns, from + width);
+            if (from > 0) {
+                out.append('\n');
+            }
+            if (options.hasRuler()) {
+                appendRuler(out, from, to, seqStart, seq.length());
+            }
+            for (RenderRow row : rows) {
+                row.appendTo(out, from, Math.min(to, row.length()));
+                out.append('\n');
             }
-        } else {
-            out += SequenceUtils.complement(this.ext5);
         }
+    }
 
-        out += SequenceUtils.complement(this.sequence);
-
-        if (this.ext3.startsWith("-")) {
-            out += mod_3;
-            for (int i = 0; i < this.ext3.length() - 1; i++) {
-                out += " ";
+    /**
+     * Writes a line labelling every tenth base of columns [from, to), each
+     * number ending in the column of the base it counts
+     */
+    private static void appendRuler(Appendable out, int from, int to, int seqStart, int seqLength) throws IOException {
+        char[] line = new char[to - from];
+        Arrays.fill(line, ' ');
+        int used = 0;
+        int firstPos = Math.max(1, from - seqStart + 1);
+        for (int pos = (firstPos + 9) / 10 * 10; pos <= seqLength; pos += 10) {
+            int col = seqStart + pos - 1 - from;
+            if (col >= line.length) {
+                break;
             }
-        } else {
-            out += SequenceUtils.complement(this.ext3) + mod_3;
+            String label = Integer.toString(pos);
+            int begin = col - label.length() + 1;
+            if (begin < used) {
+                continue;
+            }
+            label.getChars(0, label.length(), line, begin);
+            used = col + 2;
         }
-
-        out += separator + "5'\n";
-
-        return out;
+        int end = line.length;
+        while (end > 0 && line[end - 1] == ' ') {
+            end--;
+        }
+        out.append(new String(line, 0, end)).append('\n');
     }
 
-    
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            render(out, RenderOptions.DEFAULT);
+        } catch (IOException err) {
+            //A StringBuilder does not throw
+            throw new RuntimeException(err);
+        }
+        return out.toString();
+    }
 
     public static void main(String[] args) {
         System.out.println("Demo a blunt DNA, like a PCR product");
@@ -0,0 +1,116 @@
+package org.ucb.c5.constructionfile.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Intern pool for Polynucleotides, so that a molecule described over and
+ * over (eg the same plasmid template in every construction file of a batch)
+ * is held in memory once.
+ *
+ * Molecules are bucketed by their content hash.  intern() only hands back a
+ * pooled instance written exactly like the one supplied, same rotation,
+ * strand, case and ends, because downstream code works on positions;
+ * rotations or flips that are merely equal() are pooled separately.
+ * Entries are weakly held and disappear once nothing else uses them.  All
+ * methods are thread-safe.
+ */
+public class PolynucleotidePool {
+
+    private static final PolynucleotidePool INSTANCE = new PolynucleotidePool();
+
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+    private final ReferenceQueue<Polynucleotide> cleared = new ReferenceQueue<>();
+    private int size;
+
+    /**
+     * @return the pool shared by the parsers and factories
+     */
+    public static PolynucleotidePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param poly a molecule to share
+     * @return the pooled molecule identical to poly, which is poly itself
+     * if there was none yet
+     */
+    public Polynucleotide intern(Polynucleotide poly) {
+        if (poly == null || poly.getPackedSequence() == null) {
+            return poly;
+        }
+        long hash = poly.getContentHash();
+        synchronized (this) {
+            expunge();
+            List<Entry> bucket = buckets.get(hash);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                buckets.put(hash, bucket);
+            }
+            for (Entry entry : bucket) {
+                Polynucleotide pooled = entry.get();
+                if (pooled != null && isIdentical(pooled, poly)) {
+                    return pooled;
+                }
+            }
+            bucket.add(new Entry(poly, hash, cleared));
+            size++;
+            return poly;
+        }
+    }
+
+    /**
+     * @return the number of molecules currently pooled
+     */
+    public synchronized int size() {
+        expunge();
+        return size;
+    }
+
+    private void expunge() {
+        Entry dead;
+        while ((dead = (Entry) cleared.poll()) != null) {
+            List<Entry> bucket = buckets.get(dead.hash);
+            if (bucket != null && bucket.remove(dead)) {
+                size--;
+                if (bucket.isEmpty()) {
+                    buckets.remove(dead.hash);
+                }
+            }
+        }
+    }
+
+    private static boolean isIdentical(Polynucleotide a, Polynucleotide b) {
+        return a.getPackedSequence().equals(b.getPackedSequence())
+                && a.getExt5().equals(b.getExt5())
+                && a.getExt3().equals(b.getExt3())
+                && a.getMod5() == b.getMod5()
+                && a.getMod3() == b.getMod3()
+                && a.isIsDoubleStranded() == b.isIsDoubleStranded()
+                && a.isIsRNA() == b.isIsRNA();
+    }
+
+    private static final class Entry extends WeakReference<Polynucleotide> {
+
+        private final long hash;
+
+        Entry(Polynucleotide poly, long hash, ReferenceQueue<Polynucleotide> queue) {
+            super(poly, queue);
+            this.hash = hash;
+        }
+    }
+
+    public static void main(String[] args) {
+        PolynucleotidePool pool = getInstance();
+        Polynucleotide first = pool.intern(new Polynucleotide("GGATCCaaaaGAATTC", true));
+        Polynucleotide second = pool.intern(new Polynucleotide("GGATCCaaaaGAATTC", true));
+        Polynucleotide rotated = pool.intern(new Polynucleotide("aaaaGAATTCGGATCC", true));
+        System.out.println("Same instance: " + (first == second));
+        System.out.println("Rotation equal: " + first.equals(rotated) + ", pooled apart: " + (first != rotated));
+        System.out.println("Pooled: " + pool.size());
+    }
+}
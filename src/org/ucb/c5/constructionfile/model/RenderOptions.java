@@ -0,0 +1,50 @@
+package org.ucb.c5.constructionfile.model;
+
+/**
+ * How Polynucleotide.render draws a molecule.
+ *
+ * DOUBLE_STRAND is the usual two-line drawing with overhangs and end
+ * modifications; SINGLE_STRAND draws only the top strand, as is done anyway
+ * for single-stranded molecules.  A lineWidth of 0 leaves each strand on
+ * one line, otherwise the drawing is cut into blocks of that many columns.
+ * The ruler puts sequence coordinates above every block, counting the first
+ * base after the 5' overhang as 1.
+ */
+public class RenderOptions {
+
+    public enum Layout {
+        DOUBLE_STRAND,
+        SINGLE_STRAND
+    }
+
+    //What toString() uses
+    public static final RenderOptions DEFAULT = new RenderOptions(Layout.DOUBLE_STRAND, 0, false);
+
+    private final Layout layout;
+    private final int lineWidth;
+    private final boolean ruler;
+
+    public RenderOptions(Layout layout, int lineWidth, boolean ruler) {
+        if (layout == null) {
+            throw new IllegalArgumentException("A layout is required");
+        }
+        if (lineWidth < 0) {
+            throw new IllegalArgumentException("Line width cannot be negative: " + lineWidth);
+        }
+        this.layout = layout;
+        this.lineWidth = lineWidth;
+        this.ruler = ruler;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public int getLineWidth() {
+        return lineWidth;
+    }
+
+    public boolean hasRuler() {
+        return ruler;
+    }
+}
@@ -0,0 +1,81 @@
+package org.ucb.c5.constructionfile.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One line of a Polynucleotide drawing, held as the pieces it is made of
+ * (labels, padding, sequence, complement views) rather than as a String.
+ * Any column range can be written straight to an Appendable.
+ */
+final class RenderRow {
+
+    private final List<CharSequence> pieces = new ArrayList<>();
+    private int length;
+
+    RenderRow add(CharSequence piece) {
+        if (piece.length() > 0) {
+            pieces.add(piece);
+            length += piece.length();
+        }
+        return this;
+    }
+
+    RenderRow pad(int spaces) {
+        return spaces > 0 ? add(new Spaces(spaces)) : this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Writes columns [from, to) of the row
+     */
+    void appendTo(Appendable out, int from, int to) throws IOException {
+        int start = 0;
+        for (CharSequence piece : pieces) {
+            int end = start + piece.length();
+            if (end > from && start < to) {
+                out.append(piece, Math.max(from, start) - start, Math.min(to, end) - start);
+            }
+            if (end >= to) {
+                return;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * A run of blanks that is never materialized
+     */
+    private static final class Spaces implements CharSequence {
+
+        private final int length;
+
+        Spaces(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return ' ';
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Spaces(end - start);
+        }
+
+        @Override
+        public String toString() {
+            return " ".repeat(length);
+        }
+    }
+}
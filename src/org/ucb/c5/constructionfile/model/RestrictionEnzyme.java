@@ -1,21 +1,41 @@
 package org.ucb.c5.constructionfile.model;
 
+import org.ucb.c5.sequtils.DegeneratePattern;
+
 /**
+ * A restriction enzyme and where it cuts.
+ *
+ * cut5 and cut3 are the cut positions on the top and bottom strands,
+ * counted in top-strand bases from the start of the site: BamHI G^GATCC is
+ * 1 and 5, PstI CTGCA^G is 5 and 1, and Type IIS BsaI GGTCTC(1/5) is 7 and
+ * 11.  The site is compiled once for matching.
  *
  * @author J. Christopher Anderson
  */
 public class RestrictionEnzyme {
 
+    private final String name;
     private final String site;
     private final int cut5;
     private final int cut3;
     private final int minCleavageDistance;
+    private final DegeneratePattern pattern;
 
     public RestrictionEnzyme(String site, int cut5, int cut3, int nebdistanceCut) {
+        this(null, site, cut5, cut3, nebdistanceCut);
+    }
+
+    public RestrictionEnzyme(String name, String site, int cut5, int cut3, int nebdistanceCut) {
+        this.name = name;
         this.site = site;
         this.cut5 = cut5;
         this.cut3 = cut3;
         this.minCleavageDistance = nebdistanceCut;
+        this.pattern = DegeneratePattern.compile(site);
+    }
+
+    public String getName() {
+        return name;
     }
 
     public String getSite() {
@@ -29,8 +49,36 @@ public class RestrictionEnzyme {
     public int getCut3() {
         return cut3;
     }
-    
+
     public int getMinCleavageDistance() {
         return minCleavageDistance;
     }
+
+    /**
+     * @return the site compiled for matching
+     */
+    public DegeneratePattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return true if the site is its own reverse complement
+     */
+    public boolean isPalindromic() {
+        return pattern.isPalindromic();
+    }
+
+    /**
+     * @return true if the enzyme cuts outside its site, as Type IIS enzymes
+     * such as BsaI do
+     */
+    public boolean cutsOutsideSite() {
+        int len = site.length();
+        return cut5 < 0 || cut3 < 0 || cut5 > len || cut3 > len;
+    }
+
+    @Override
+    public String toString() {
+        return (name == null ? "" : name + " ") + site + "(" + cut5 + "/" + cut3 + ")";
+    }
 }
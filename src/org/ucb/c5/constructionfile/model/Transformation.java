@@ -5,7 +5,7 @@
  */
 package org.ucb.c5.constructionfile.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -18,14 +18,14 @@ public class Transformation implements Step {
     private final String strain;
     private final Antibiotic antibiotic;
     private final String product;
+    private final List<String> inputs;
 
     public Transformation(String dna, String strain, Antibiotic antibiotic, String product) {
         this.dna = dna;
         this.strain = strain;
         this.antibiotic = antibiotic;
         this.product = product;
-        List<String> substrates = new ArrayList<>();
-        substrates.add(dna);
+        this.inputs = Collections.singletonList(dna);
     }
 
     public String getDna() {
@@ -52,8 +52,6 @@ public class Transformation implements Step {
 
     @Override
     public List<String> getInputs() {
-        List<String> inputs = new ArrayList<String>();
-        inputs.add(getDna());
         return inputs;
     }
 }
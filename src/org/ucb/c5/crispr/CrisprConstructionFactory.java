@@ -12,6 +12,7 @@ import org.ucb.c5.constructionfile.model.Modifications;
 import org.ucb.c5.constructionfile.model.Oligo;
 import org.ucb.c5.constructionfile.model.PCR;
 import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.constructionfile.model.PolynucleotidePool;
 import org.ucb.c5.constructionfile.model.Step;
 import org.ucb.c5.constructionfile.model.Transformation;
 import org.ucb.c5.utils.Pair;
@@ -28,10 +29,15 @@ public class CrisprConstructionFactory {
     private final String templateSeq = "catgttctttcctgcgttatcccctgattctgtggataaccgtattaccgcctttgagtgagctgataccgctcgccgcagccgaacgaccgagcgcagcgagtcagtgagcgaggaagcggaagagcgcctgatgcggtattttctccttacgcatctgtgcggtatttcacaccgcatatgctggatccttgacagctagctcagtcctaggtataatactagtcatcgccgcagcggtttcaggttttagagctagaaatagcaagttaaaataaggctagtccgttatcaacttgaaaaagtggcaccgagtcggtgctttttttgaattctctagagtcgacctgcagaagcttagatctattaccctgttatccctactcgagttcatgtgcagctccataagcaaaaggggatgataagtttatcaccaccgactatttgcaacagtgccgttgatcgtgctatgatcgactgatgtcatcagcggtggagtgcaatgtcatgagggaagcggtgatcgccgaagtatcgactcaactatcagaggtagttggcgtcatcgagcgccatctcgaaccgacgttgctggccgtacatttgtacggctccgcagtggatggcggcctgaagccacacagtgatattgatttgctggttacggtgaccgtaaggcttgatgaaacaacgcggcgagctttgatcaacgaccttttggaaacttcggcttcccctggagagagcgagattctccgcgctgtagaagtcaccattgttgtgcacgacgacatcattccgtggcgttatccagctaagcgcgaactgcaatttggagaatggcagcgcaatgacattcttgcaggtatcttcgagccagccacgatcgacattgatctggctatcttgctgacaaaagcaagagaacatagcgttgccttggtaggtccagcggcggaggaactctttgatccggttcctgaacaggatctatttgaggcgctaaatgaaaccttaacgctatggaactcgccgcccgactgggctggcgatgagcgaaatgtagtgcttacgttgtcccgcatttggtacagcgcagtaaccggcaaaatcgcgccgaaggatgtcgctgccgactgggcaatggagcgcctgccggcccagtatcagcccgtcatacttgaagctagacaggcttatcttggacaagaagaagatcgcttggcctcgcgcgcagatcagttggaagaatttgtccactacgtgaaaggcgagatcaccaaggtagtcggcaaataagatgccgctcgccagtcgattggctgagctcataagttcctattccgaagttccgcgaacgcgtaaaggatctaggtgaagatcctttttgataatctcatgaccaaaatcccttaacgtgagttttcgttccactgagcgtcagaccccgtagaaaagatcaaaggatcttcttgagatcctttttttctgcgcgtaatctgctgcttgcaaacaaaaaaaccaccgctaccagcggtggtttgtttgccggatcaagagctaccaactctttttccgaaggtaactggcttcagcagagcgcagataccaaatactgtccttctagtgtagccgtagttaggccaccacttcaagaactctgtagcaccgcctacatacctcgctctgctaatcctgttaccagtggctgctgccagtggcgataagtcgtgtcttaccgggttggactcaagacgatagttaccggataaggcgcagcggtcgggctgaacggggggttcgtgcacacagcccagcttggagcgaacgacctacaccgaactgagatacctacagcgtgagctatgagaaagcgccacgcttcccgaagggagaaaggcggacaggtatccggtaagcggcagggtcggaacaggagagcgcacgagggagcttccagggggaaacgcctggtatctttatagtcctgtcgggtttcgccacctctgacttgagcgtcgatttttgtgatgctcgtcaggggggcggagcctatggaaaaacgccagcaacgcggcctttttacggttcctggccttttgctggccttttgctca";
     private final Antibiotic antibiotic = Antibiotic.Spec;
     private final CrisprDesignOligos oligoDesigner = new CrisprDesignOligos();
+    private final PolynucleotidePool pool = PolynucleotidePool.getInstance();
+    private Polynucleotide templatePoly;
 
     public void initiate() throws Exception {
         templates.add(template);
         oligoDesigner.initiate();
+
+        //Every construction file shares the one pTargetF molecule
+        templatePoly = pool.intern(new Polynucleotide(templateSeq, true));
     }
 
     /**
@@ -71,9 +77,9 @@ public class CrisprConstructionFactory {
 
         //Put in the sequences of the two oligos and template
         Map<String, Polynucleotide> sequences = new HashMap<>();
-        sequences.put(forOligo.getName(), new Polynucleotide(forOligo.getSequence(), "", "", false, false, false, Modifications.hydroxyl, Modifications.hydroxyl));
-        sequences.put(revOligo.getName(), new Polynucleotide(revOligo.getSequence(), "", "", false, false, false, Modifications.hydroxyl, Modifications.hydroxyl));
-        sequences.put(template, new Polynucleotide(templateSeq, true));
+        sequences.put(forOligo.getName(), pool.intern(new Polynucleotide(forOligo.getSequence(), "", "", false, false, false, Modifications.hydroxyl, Modifications.hydroxyl)));
+        sequences.put(revOligo.getName(), pool.intern(new Polynucleotide(revOligo.getSequence(), "", "", false, false, false, Modifications.hydroxyl, Modifications.hydroxyl)));
+        sequences.put(template, templatePoly);
 
         //Instantiate the Construction File
         ConstructionFile constf = new ConstructionFile(steps, pdtName, sequences);
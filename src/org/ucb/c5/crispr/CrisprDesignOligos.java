@@ -1,5 +1,7 @@
 package org.ucb.c5.crispr;
 
+import org.ucb.c5.sequtils.DegeneratePattern;
+import org.ucb.c5.sequtils.IupacMask;
 import org.ucb.c5.utils.Pair;
 
 /**
@@ -8,6 +10,7 @@ import org.ucb.c5.utils.Pair;
  */
 public class CrisprDesignOligos {
   private final int SPACER_LENGTH = 20;
+  private final DegeneratePattern PAM = DegeneratePattern.compile("NGG");
     
     public void initiate() throws Exception {}
     
@@ -17,12 +20,12 @@ public class CrisprDesignOligos {
         }
 
 	cds = cds.toUpperCase();
- 	if(!cds.matches("[ATCG]+")) {
+ 	if(!IupacMask.isUnambiguous(cds)) {
             throw new IllegalArgumentException("CDS is not DNA");
         }
         
         //Calculate the start index for the NGG PAM sequence
-        int PAM_start = cds.indexOf("GG", SPACER_LENGTH + 2) -1;
+        int PAM_start = PAM.indexOf(cds, SPACER_LENGTH + 1);
         
         if(PAM_start < 0) {
             throw new IllegalArgumentException ("CDS contains no target site on this strand");
@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.ucb.c5.constructionfile.model.Blunting;
 import org.ucb.c5.constructionfile.model.ConstructionFile;
 import org.ucb.c5.constructionfile.model.Digestion;
 import org.ucb.c5.constructionfile.model.PCR;
@@ -71,6 +72,9 @@ public class InventoryFactory {
                     case transform:
                         currloc = assignMiniprepSamples((Transformation) astep, experimentId, samples, currloc);
                         break;
+                    case blunting:
+                        currloc = assignBluntedSamples((Blunting) astep, experimentId, samples, currloc);
+                        break;
                 }
             }
         }
@@ -194,6 +198,20 @@ public class InventoryFactory {
         return currloc;
     }
 
+    private Pair<Integer, Integer> assignBluntedSamples(Blunting blunting, int experimentId, Sample[][] samples, Pair<Integer, Integer> currloc) throws Exception {
+        //Create Sample for the zymo cleanup of the blunted product
+        Sample zymo = new Sample("b" + experimentId,
+                "b" + experimentId + " - " + blunting.getProduct(),
+                Sample.Concentration.zymo,
+                blunting.getProduct(),
+                null,
+                null);
+        samples[currloc.getKey()][currloc.getValue()] = zymo;
+        currloc = getNextLocation(currloc);
+
+        return currloc;
+    }
+
     private Pair<Integer, Integer> assignMiniprepSamples(Transformation transformation, int experimentId, Sample[][] samples, Pair<Integer, Integer> currloc) throws Exception {
         //Assign positions for minipreps of clones
         for (int i = 0; i < NUM_MINIPREPS; i++) {
@@ -2,6 +2,7 @@ package org.ucb.c5.labplanner;
 
 import java.util.*;
 
+import org.ucb.c5.constructionfile.EnzymeRegistry;
 import org.ucb.c5.constructionfile.model.*;
 import org.ucb.c5.labplanner.inventory.model.Inventory;
 import org.ucb.c5.labplanner.inventory.model.Location;
@@ -13,6 +14,9 @@ import org.ucb.c5.labplanner.labpacket.model.LabPacket;
 import org.ucb.c5.labplanner.labpacket.model.LabSheet;
 import org.ucb.c5.labplanner.labpacket.model.Reagent;
 import org.ucb.c5.labplanner.labpacket.model.Recipe;
+import org.ucb.c5.simulation.SimulateBlunting;
+import org.ucb.c5.simulation.SimulatePCR;
+import org.ucb.c5.utils.Log;
 import org.ucb.c5.utils.Pair;
 
 import javax.swing.*;
@@ -28,8 +32,10 @@ public class LabPacketFactory {
 
     private final Map<String, Reagent> enzymeMap = new HashMap<String, Reagent>();
     private final Map<String, Reagent> strainMap = new HashMap<String, Reagent>();
+    private final SimulatePCR simulatePCR = new SimulatePCR();
 
     public void initiate() throws Exception {
+        simulatePCR.initiate();
         enzymeMap.put("Phusion", Reagent.Phusion);
         enzymeMap.put("Q5_polymerase", Reagent.Q5_polymerase);
         enzymeMap.put("PrimeSTAR_GXL_DNA_Polymerase", Reagent.PrimeSTAR_GXL_DNA_Polymerase);
@@ -44,6 +50,8 @@ public class LabPacketFactory {
         enzymeMap.put("XbaI", Reagent.XbaI);
         enzymeMap.put("PstI", Reagent.PstI);
         enzymeMap.put("Hindiii", Reagent.Hindiii);
+        enzymeMap.put("T4_DNA_polymerase", Reagent.T4_DNA_polymerase);
+        enzymeMap.put("Mung_Bean_Nuclease", Reagent.Mung_Bean_Nuclease);
 
         strainMap.put("zymo_10b", Reagent.zymo_10b);
         strainMap.put("Zymo_5a", Reagent.Zymo_5a);
@@ -55,6 +63,24 @@ public class LabPacketFactory {
 
     }
 
+    /**
+     * @return enzyme if it is one we stock, else a stocked isoschizomer (eg
+     * BsaI for Eco31I), else enzyme unchanged
+     */
+    private String stockedEnzyme(String enzyme) {
+        if (enzymeMap.containsKey(enzyme)) {
+            return enzyme;
+        }
+        for (RestrictionEnzyme iso : EnzymeRegistry.getDefault().getIsoschizomers(enzyme)) {
+            for (String stocked : enzymeMap.keySet()) {
+                if (stocked.equalsIgnoreCase(iso.getName())) {
+                    return stocked;
+                }
+            }
+        }
+        return enzyme;
+    }
+
     /**
      * Assumes all samples that are inputs or to-be-created are already in the
      * inventory, and the inventory is indexed
@@ -67,40 +93,38 @@ public class LabPacketFactory {
      */
     public LabPacket run(String experimentName, 
             List<ConstructionFile> cfList, Inventory inventory) throws Exception {
-        
-        //Index the steps by operation
-        List<Step> pcrSteps = new ArrayList<>();
-        List<Step> digestSteps = new ArrayList<>();
-        List<Step> ligateSteps = new ArrayList<>();
-        List<Step> assemblySteps = new ArrayList<>();
-        List<Step> transformSteps = new ArrayList<>();
-
+        List<CompiledConstructionFile> compiled = new ArrayList<>();
         for (ConstructionFile cf : cfList) {
-            for (Step astep : cf.getSteps()) {
-                switch (astep.getOperation()) {
-                    case pcr:
-                        pcrSteps.add(astep);
-                        break;
-                    case digest:
-                        digestSteps.add(astep);
-                        break;
-                    case ligate:
-                        ligateSteps.add(astep);
-                        break;
-                    case assemble:
-                        assemblySteps.add(astep);
-                        break;
-                    case transform:
-                        transformSteps.add(astep);
-                        break;
-                }
+            compiled.add(new CompiledConstructionFile(cf));
+        }
+        return runCompiled(experimentName, compiled, inventory);
+    }
+
+    /**
+     * As run, on construction files already compiled
+     */
+    public LabPacket runCompiled(String experimentName,
+            List<CompiledConstructionFile> cfList, Inventory inventory) throws Exception {
+
+        //Index the steps by operation
+        List<Step> pcrSteps = stepsOf(cfList, Operation.pcr);
+        List<Step> digestSteps = stepsOf(cfList, Operation.digest);
+        List<Step> ligateSteps = stepsOf(cfList, Operation.ligate);
+        List<Step> assemblySteps = stepsOf(cfList, Operation.assemble);
+        List<Step> transformSteps = stepsOf(cfList, Operation.transform);
+        List<Step> bluntingSteps = stepsOf(cfList, Operation.blunting);
+        Map<Step, Integer> pcrSizes = new IdentityHashMap<>();
+        for (CompiledConstructionFile cf : cfList) {
+            for (int step : cf.getSteps(Operation.pcr)) {
+                pcrSizes.put(cf.getStep(step), productSize(cf, step));
             }
         }
 
         //Create the LabSheets
         List<LabSheet> labsheets = new ArrayList<>();
-        labsheets.addAll(handlePCR(pcrSteps, experimentName, inventory));
+        labsheets.addAll(handlePCR(pcrSteps, pcrSizes, experimentName, inventory));
         labsheets.addAll(handleDigest(digestSteps, experimentName, inventory));
+        labsheets.addAll(handleBlunting(bluntingSteps, experimentName, inventory));
         labsheets.addAll(handleLigate(ligateSteps, experimentName, inventory));
         labsheets.addAll(handleAssemble(assemblySteps, experimentName, inventory));
         labsheets.addAll(handleTransform(transformSteps, experimentName, inventory));
@@ -110,7 +134,37 @@ public class LabPacketFactory {
         return packet;
     }
 
-    private List<LabSheet> handlePCR(List<Step> pcrSteps, String expName, Inventory inventory) throws Exception {
+    private static List<Step> stepsOf(List<CompiledConstructionFile> cfList, Operation op) {
+        List<Step> out = new ArrayList<>();
+        for (CompiledConstructionFile cf : cfList) {
+            for (int step : cf.getSteps(op)) {
+                out.add(cf.getStep(step));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the length of the product of PCR step simulated from the
+     * construction file's sequences, or 3800 if it does not give them all
+     * @throws Exception if the primers give no product on the templates
+     */
+    private int productSize(CompiledConstructionFile cf, int step) throws Exception {
+        int[] inputs = cf.getInputs(step);
+        List<Polynucleotide> sequences = new ArrayList<>();
+        for (int id : inputs) {
+            Polynucleotide poly = cf.getSequence(id);
+            if (poly == null) {
+                Log.warning("No sequence for " + cf.getName(id) + " in " + cf.getPdtName()
+                        + ", sizing PCR product " + cf.getName(cf.getProduct(step)) + " at 3800 bp");
+                return 3800;
+            }
+            sequences.add(poly);
+        }
+        return simulatePCR.run(sequences.get(0), sequences.get(1), sequences.subList(2, sequences.size())).getSequence().length();
+    }
+
+    private List<LabSheet> handlePCR(List<Step> pcrSteps, Map<Step, Integer> pcrSizes, String expName, Inventory inventory) throws Exception {
         List<LabSheet> sheets = new ArrayList<>();
         if (pcrSteps.isEmpty()) {
             return sheets;
@@ -224,6 +278,7 @@ public class LabPacketFactory {
          * Create a Gel sheet
          */
         List<Location> zymoDestinations = new ArrayList<>();
+        List<Integer> productSizes = new ArrayList<>();
         {
             String title = expName + ": Gel";
             String program = null;
@@ -254,14 +309,15 @@ public class LabPacketFactory {
                         throw new Exception("Null location for " + pdtName);
                     }
                     zymoDestinations.add(chosenLoc);
+                    productSizes.add(pcrSizes.get(pcr));
                 }
             }
 
             //Create the steps
             List<Step> gelSteps = new ArrayList<>();
-            for (Location loc : zymoDestinations) {
-                String label = loc.getLabel();
-                int size = 3800;  //TODO:  replace with lookup based on sequence length from CF
+            for (int i = 0; i < zymoDestinations.size(); i++) {
+                String label = zymoDestinations.get(i).getLabel();
+                int size = productSizes.get(i);
                 Gel gs = new Gel(label, size);
                 gelSteps.add(gs);
             }
@@ -348,7 +404,11 @@ public class LabPacketFactory {
                 Location chosenLoc;
                 for (String enzyme : enzymes) {
                     chosenLoc = null;
+                    String stocked = stockedEnzyme(enzyme);
                     Set<Location> forLocs = inventory.getLocations(enzyme);
+                    if ((forLocs == null || forLocs.isEmpty()) && !stocked.equals(enzyme)) {
+                        forLocs = inventory.getLocations(stocked);
+                    }
                     for (Location loc : forLocs) {
                         chosenLoc = loc;
                         break;
@@ -359,7 +419,7 @@ public class LabPacketFactory {
                     }
                     sources.add(chosenLoc);
 
-                    Reagent reagent = enzymeMap.get(enzyme);
+                    Reagent reagent = enzymeMap.get(stocked);
                     if (reagent == null) {
                         throw new Exception("No enzyme matches query " + enzyme);
                     }
@@ -458,6 +518,149 @@ public class LabPacketFactory {
         return sheets;
     }
 
+    private List<LabSheet> handleBlunting(List<Step> bluntingSteps, String expName, Inventory inventory) throws Exception {
+        List<LabSheet> sheets = new ArrayList<>();
+
+        if (bluntingSteps.isEmpty()) {
+            return sheets;
+        }
+
+        /**
+         * ***************
+         * Create a Blunting sheet
+         */
+        {
+            String title = expName + ": Blunting";
+            String program = "";
+            String protocol = "";
+            String instrument = "";
+            List<String> notes = new ArrayList<>();
+            notes.add("Polymerase: T4 DNA polymerase with dNTPs, 15 min at 12C, then 20 min at 75C.\n"
+                    + "Exonuclease: mung bean nuclease, 30 min at 30C, then purify directly.");
+
+            //Pull out locations
+            List<Location> sources = new ArrayList<>();
+            List<Location> destinations = new ArrayList<>();
+            List<Pair<Reagent, Double>> reaction = new ArrayList<>();
+            reaction.add(new Pair<>(Reagent.template, 1.0));
+            Set<BluntingType> types = new HashSet<>();
+            for (Step astep : bluntingSteps) {
+                Blunting blunt = (Blunting) astep;
+                BluntingType type = SimulateBlunting.parseType(blunt.getTypes());
+
+                //Pull out sources for the substrate
+                {
+                    String forSubstrate = blunt.getSubstrate();
+                    Location chosenLoc = null;
+                    Set<Location> forLocs = inventory.getLocations(forSubstrate);
+                    for (Location loc : forLocs) {
+                        Concentration conc = inventory.getConcentration(loc);
+                        if (conc == Concentration.zymo || conc == miniprep
+                                || conc == Concentration.dil20x) {
+                            chosenLoc = loc;
+                            break;
+                        }
+                    }
+
+                    if (chosenLoc == null) {
+                        throw new Exception("Null location for " + forSubstrate);
+                    }
+                    sources.add(chosenLoc);
+                }
+
+                //Pull out the enzyme for the blunting type
+                {
+                    String enzyme;
+                    Reagent buffer;
+                    if (type == BluntingType.Polymerase) {
+                        enzyme = "T4_DNA_polymerase";
+                        buffer = Reagent.NEB_Buffer_2_10x;
+                    } else {
+                        enzyme = "Mung_Bean_Nuclease";
+                        buffer = Reagent.Mung_Bean_Nuclease_Buffer_10x;
+                    }
+                    Location chosenLoc = null;
+                    Set<Location> forLocs = inventory.getLocations(enzyme);
+                    if (forLocs != null) {
+                        for (Location loc : forLocs) {
+                            chosenLoc = loc;
+                            break;
+                        }
+                    }
+
+                    if (chosenLoc == null) {
+                        throw new Exception("Null location for " + enzyme);
+                    }
+                    sources.add(chosenLoc);
+
+                    //The recipe lists each type's reagents once
+                    if (types.add(type)) {
+                        reaction.add(new Pair<>(enzymeMap.get(enzyme), 1.0));
+                        reaction.add(new Pair<>(buffer, 2.0));
+                        if (type == BluntingType.Polymerase) {
+                            reaction.add(new Pair<>(Reagent.dNTPs_2mM, 1.0));
+                        }
+                    }
+                }
+            }
+            double sum = 0;
+            for (Pair<Reagent, Double> p : reaction) {
+                sum = sum + p.getValue();
+            }
+            reaction.add(new Pair<>(Reagent.ddH2O, 20.0 - sum));
+            Recipe recipe = new Recipe(reaction, null);
+            LabSheet sheet = new LabSheet(title, bluntingSteps, sources, destinations, program, protocol, instrument, notes, recipe);
+            sheets.add(sheet);
+        }
+
+        /**
+         * **************************
+         * Create a zymo Cleanup sheet
+         */
+        {
+            String title = expName + ": Cleanup";
+            String program = null;
+            String protocol = null;
+            String instrument = null;
+            Recipe recipe = null;
+            List<String> notes = new ArrayList<>();
+
+            //Pull out the blunted product zymo locations
+            List<Location> zymoDestinations = new ArrayList<>();
+            for (Step astep : bluntingSteps) {
+                String pdtName = astep.getProduct();
+                Location chosenLoc = null;
+                Set<Location> forLocs = inventory.getLocations(pdtName);
+                for (Location loc : forLocs) {
+                    Concentration conc = inventory.getConcentration(loc);
+                    if (conc == Concentration.zymo) {
+                        chosenLoc = loc;
+                        break;
+                    }
+                }
+
+                if (chosenLoc == null) {
+                    throw new Exception("Null location for " + pdtName);
+                }
+                zymoDestinations.add(chosenLoc);
+            }
+
+            //Create the steps
+            List<Step> zymoSteps = new ArrayList<>();
+            for (Location loc : zymoDestinations) {
+                String label = loc.getLabel();
+                double volume = 20.0;
+                Cleanup cu = new Cleanup(label, volume);
+                zymoSteps.add(cu);
+            }
+
+            //Package the Cleanup sheet
+            LabSheet sheet = new LabSheet(title, zymoSteps, new ArrayList<>(), zymoDestinations, program, protocol, instrument, notes, recipe);
+            sheets.add(sheet);
+        }
+        return sheets;
+    }
+
     private List<LabSheet> handleLigate(List<Step> ligateSteps, String expName, Inventory inventory) throws Exception {
         List<LabSheet> sheets = new ArrayList<>();
 
@@ -612,6 +815,14 @@ public class LabPacketFactory {
         return sheets;
     }
 
+    /**
+     * @return true if the step names a Type IIS enzyme, as Golden Gate needs
+     */
+    private boolean isGoldenGate(Assembly astep) {
+        RestrictionEnzyme enz = EnzymeRegistry.getDefault().get(astep.getEnzyme());
+        return enz != null && enz.cutsOutsideSite();
+    }
+
     private List<LabSheet> handleAssemble(List<Step> assemblySteps, String expName, Inventory inventory) throws Exception {
         List<LabSheet> sheets = new ArrayList<>();
 
@@ -619,65 +830,122 @@ public class LabPacketFactory {
             return sheets;
         }
 
-        /**
-         * ***************
-         * Create an assembly sheet
-         */
-        {
-            //Create the header data
-            String title = expName + ": Assembly";
-
-            String program = ""; //TODO: Detect if GG or Gibson
-            String protocol = ""; //TODO: Detect if GG or Gibson
-            String instrument = "Thermocycler 2A";
+        //Golden Gate reactions go on one sheet per enzyme, Gibson reactions on their own
+        Map<String, List<Step>> goldenGateSteps = new LinkedHashMap<>();
+        List<Step> gibsonSteps = new ArrayList<>();
+        for (Step astep : assemblySteps) {
+            Assembly assem = (Assembly) astep;
+            if (isGoldenGate(assem)) {
+                String enzyme = stockedEnzyme(assem.getEnzyme());
+                List<Step> steps = goldenGateSteps.get(enzyme);
+                if (steps == null) {
+                    steps = new ArrayList<>();
+                    goldenGateSteps.put(enzyme, steps);
+                }
+                steps.add(astep);
+            } else {
+                gibsonSteps.add(astep);
+            }
+        }
+        for (Map.Entry<String, List<Step>> entry : goldenGateSteps.entrySet()) {
+            sheets.add(createAssemblySheet(entry.getValue(), entry.getKey(), expName, inventory));
+        }
+        if (!gibsonSteps.isEmpty()) {
+            sheets.add(createAssemblySheet(gibsonSteps, null, expName, inventory));
+        }
+        return sheets;
+    }
 
-            //Create the recipe
-            //TODO: Detect if GG or Gibson
-            List<Pair<Reagent, Double>> mastermix = null; //TODO:  implement for 4+ samples
-            List<Pair<Reagent, Double>> reaction = new ArrayList<>();
-            Recipe recipe = new Recipe(mastermix, reaction);
+    /**
+     * @param enzyme the stocked Type IIS enzyme of a Golden Gate sheet, or
+     * null for a Gibson sheet
+     */
+    private LabSheet createAssemblySheet(List<Step> assemblySteps, String enzyme, String expName, Inventory inventory) throws Exception {
+        boolean goldenGate = enzyme != null;
+
+        //Create the header data
+        String title;
+        String program;
+        String protocol;
+        if (goldenGate) {
+            title = expName + ": Golden Gate Assembly (" + enzyme + ")";
+            program = "GG30";
+            protocol = "Golden Gate";
+        } else {
+            title = expName + ": Gibson Assembly";
+            program = "GIB50";
+            protocol = "Gibson";
+        }
+        String instrument = "Thermocycler 2A";
 
-            //Create the notes
-            List<String> notes = new ArrayList<>();
-            notes.add("Never let enzymes warm up!  Only take the enzyme cooler out of the freezer\n"
-                    + "when you are actively using it, and only take the tubes out of it when actively\n"
-                    + "dispensing. Hold the enzyme tube by the top of the tube while dispensing\n"
-                    + "and do not place it in a rack.");
+        //Create the notes
+        List<String> notes = new ArrayList<>();
+        notes.add("Never let enzymes warm up!  Only take the enzyme cooler out of the freezer\n"
+                + "when you are actively using it, and only take the tubes out of it when actively\n"
+                + "dispensing. Hold the enzyme tube by the top of the tube while dispensing\n"
+                + "and do not place it in a rack.");
+        if (goldenGate) {
+            notes.add("GG30: 30 cycles of 37C for 5 min and 16C for 5 min, then 60C for 5 min.");
+        } else {
+            notes.add("GIB50: 50C for 60 min.");
+        }
 
-            //Pull out locations
-            List<Location> sources = new ArrayList<>();
-            List<Location> destinations = new ArrayList<>();
-            for (Step astep : assemblySteps) {
-                Assembly assem = (Assembly) astep;
+        //Pull out locations
+        List<Location> sources = new ArrayList<>();
+        List<Location> destinations = new ArrayList<>();
+        int maxFrags = 0;
+        for (Step astep : assemblySteps) {
+            Assembly assem = (Assembly) astep;
 
-                //Pull out sources for fragments
-                {
-                    List<String> frags = assem.getFragments();
-                    for (String frag : frags) {
-                        Location chosenLoc = null;
-                        Set<Location> forLocs = inventory.getLocations(frag);
-                        inner:
-                        for (Location loc : forLocs) {
-                            Concentration conc = inventory.getConcentration(loc);
-                            if (conc == Concentration.zymo) {
-                                chosenLoc = loc;
-                                break;
-                            }
+            //Pull out sources for fragments
+            {
+                List<String> frags = assem.getFragments();
+                for (String frag : frags) {
+                    Location chosenLoc = null;
+                    Set<Location> forLocs = inventory.getLocations(frag);
+                    for (Location loc : forLocs) {
+                        Concentration conc = inventory.getConcentration(loc);
+                        if (conc == Concentration.zymo) {
+                            chosenLoc = loc;
+                            break;
                         }
+                    }
 
-                        if (chosenLoc == null) {
-                            throw new Exception("Null location for " + frag);
-                        }
-                        sources.add(chosenLoc);
+                    if (chosenLoc == null) {
+                        throw new Exception("Null location for " + frag);
                     }
+                    sources.add(chosenLoc);
                 }
-            } //end steps
+                maxFrags = Math.max(maxFrags, frags.size());
+            }
+        } //end steps
 
-            //Package the PCR sheet
-            LabSheet sheet = new LabSheet(title, assemblySteps, sources, destinations, program, protocol, instrument, notes, recipe);
-            sheets.add(sheet);
+        //Create the recipe around 1 uL of each fragment, taken from the
+        //sources; the reaction grows past 20 uL to keep fragments at most half
+        double fragVolume = maxFrags;
+        double total = Math.max(20.0, 2 * fragVolume);
+        notes.add("Add 1 uL of each fragment from the sources, up to " + maxFrags + " uL per reaction.");
+        List<Pair<Reagent, Double>> reaction = new ArrayList<>();
+        if (goldenGate) {
+            Reagent enz = enzymeMap.get(enzyme);
+            if (enz == null) {
+                throw new Exception("No stocked enzyme for " + enzyme);
+            }
+            reaction.add(new Pair<>(enz, 1.0));
+            reaction.add(new Pair<>(Reagent.T4_DNA_ligase, 1.0));
+            reaction.add(new Pair<>(Reagent.T4_DNA_Ligase_Buffer_10x, total / 10));
+        } else {
+            reaction.add(new Pair<>(Reagent.Gibson_Assembly_Master_Mix_2x, total / 2));
         }
-        return sheets;
+        double sum = fragVolume;
+        for (Pair<Reagent, Double> p : reaction) {
+            sum = sum + p.getValue();
+        }
+        reaction.add(new Pair<>(Reagent.ddH2O, total - sum));
+        Recipe recipe = new Recipe(null, reaction);
+
+        //Package the assembly sheet
+        return new LabSheet(title, assemblySteps, sources, destinations, program, protocol, instrument, notes, recipe);
     }
 
     private List<LabSheet> handleTransform(List<Step> transformSteps, String expName, Inventory inventory) throws Exception {
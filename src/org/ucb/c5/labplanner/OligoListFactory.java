@@ -2,12 +2,11 @@ package org.ucb.c5.labplanner;
 
 import java.util.ArrayList;
 import java.util.List;
+import org.ucb.c5.constructionfile.model.CompiledConstructionFile;
 import org.ucb.c5.constructionfile.model.ConstructionFile;
 import org.ucb.c5.constructionfile.model.Oligo;
 import org.ucb.c5.constructionfile.model.Operation;
-import org.ucb.c5.constructionfile.model.PCR;
 import org.ucb.c5.constructionfile.model.Polynucleotide;
-import org.ucb.c5.constructionfile.model.Step;
 
 /**
  *
@@ -19,38 +18,39 @@ public class OligoListFactory {
     }
 
     public List<Oligo> run(List<ConstructionFile> cfList) {
+        List<CompiledConstructionFile> compiled = new ArrayList<>();
+        for (ConstructionFile cf : cfList) {
+            compiled.add(new CompiledConstructionFile(cf));
+        }
+        return runCompiled(compiled);
+    }
+
+    /**
+     * As run, on construction files already compiled
+     */
+    public List<Oligo> runCompiled(List<CompiledConstructionFile> cfList) {
         List<Oligo> oligoList = new ArrayList<>();
         
         //Create samples for ever sample-generating step in every construction file
-        for (ConstructionFile cf : cfList) {
+        for (CompiledConstructionFile cf : cfList) {
             String cfPdt = cf.getPdtName();
-            for (Step astep : cf.getSteps()) {
-                if(astep.getOperation() != Operation.pcr) {
-                    continue;
-                }
+            for (int step : cf.getSteps(Operation.pcr)) {
+                //Inputs are the forward and reverse primers, then the templates
+                int[] inputs = cf.getInputs(step);
                 
                 //Add the forward primer
-                PCR pcrStep = (PCR) astep;
-                String oligo1Name = pcrStep.getOligo1();
-                String oligo1Seq = cf.getSequences().get(oligo1Name).getSequence();
-                Oligo oligo1 = new Oligo(oligo1Name, oligo1Seq, "Forward oligo in construction of " + cfPdt);
-                oligoList.add(oligo1);
+                oligoList.add(new Oligo(cf.getName(inputs[0]), cf.getSequence(inputs[0]).getSequence(), "Forward oligo in construction of " + cfPdt));
                 
                 //Add the reverse primer
-                String oligo2Name = pcrStep.getOligo2();
-                String oligo2Seq = cf.getSequences().get(oligo2Name).getSequence();
-                Oligo oligo2 = new Oligo(oligo2Name, oligo2Seq, "Reverse oligo in construction of " + cfPdt);
-                oligoList.add(oligo2);
+                oligoList.add(new Oligo(cf.getName(inputs[1]), cf.getSequence(inputs[1]).getSequence(), "Reverse oligo in construction of " + cfPdt));
                 
                 //Add any oligo templates (i.e. for PCA)
-                for(String tempName : pcrStep.getTemplates()) {
-                    Polynucleotide tempPoly = cf.getSequences().get(tempName);
+                for (int i = 2; i < inputs.length; i++) {
+                    Polynucleotide tempPoly = cf.getSequence(inputs[i]);
                     if(tempPoly.isIsDoubleStranded()) {
                         continue;
                     }
-                    String tempSeq = tempPoly.getSequence();
-                    Oligo tempOligo = new Oligo(tempName, tempSeq, "Template oligo in construction of " + cfPdt);
-                    oligoList.add(tempOligo);
+                    oligoList.add(new Oligo(cf.getName(inputs[i]), tempPoly.getSequence(), "Template oligo in construction of " + cfPdt));
                 }
             }
         }
@@ -24,6 +24,9 @@ public enum Reagent {
     XbaI,
     PstI,
     Hindiii,
+    T4_DNA_polymerase,
+    Mung_Bean_Nuclease,
+    Gibson_Assembly_Master_Mix_2x,
     
     //Buffers
     T4_DNA_Ligase_Buffer_10x,
@@ -34,6 +37,7 @@ public enum Reagent {
     dNTPs_2mM,
     PrimeSTAR_GXL_Buffer_5x,
     PrimeSTAR_dNTP_Mixture_2p5mM,
+    Mung_Bean_Nuclease_Buffer_10x,
     
     //Abstractions
     primer1,
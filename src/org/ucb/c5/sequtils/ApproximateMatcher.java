@@ -0,0 +1,227 @@
+package org.ucb.c5.sequtils;
+
+import java.util.Arrays;
+
+/**
+ * Finds a pattern in a text with up to k mismatches, insertions or
+ * deletions, by Myers' bit-vector algorithm.
+ *
+ * The pattern is compiled once into per-base match masks, one bit per
+ * pattern position, on both strands.  A pattern position matches a text
+ * base when their IUPAC masks intersect, so N in either matches anything.
+ * Patterns up to 64 bases take one machine word per column; longer ones are
+ * split into 64-base blocks with the horizontal deltas carried from block
+ * to block, so the cost is O(n * ceil(m / 64)) whatever k is.
+ *
+ * scan calls back once for every text position at which a match on either
+ * strand ends with at most k edits, giving the end (exclusive, top-strand
+ * coordinates), the edit distance and the strand as 1 or -1.  An occurrence
+ * with slack typically ends at a few neighbouring positions; callers wanting
+ * one hit per occurrence keep the local minima.  On a circular text matches
+ * may run across the origin and ends are reported from 1 to n.  Nothing is
+ * allocated per base or per hit, and a compiled matcher can be shared by
+ * any number of threads.
+ */
+public final class ApproximateMatcher {
+
+    /**
+     * Receives the hits of a scan
+     */
+    public interface HitListener {
+
+        void hit(int end, int distance, int strand);
+    }
+
+    private final String pattern;
+    private final int length;
+    private final int maxErrors;
+    private final int words;
+    private final long lastBit;
+
+    //Match masks by text IUPAC mask then word, for the pattern and its reverse complement
+    private final long[][] forward;
+    private final long[][] reverse;
+
+    private ApproximateMatcher(String pattern, int maxErrors) {
+        this.pattern = pattern;
+        this.length = pattern.length();
+        this.maxErrors = maxErrors;
+        this.words = (length + 63) >>> 6;
+        this.lastBit = 1L << ((length - 1) & 63);
+        this.forward = new long[16][words];
+        this.reverse = new long[16][words];
+        for (int i = 0; i < length; i++) {
+            int fwd = IupacMask.mask(pattern.charAt(i));
+            int rev = IupacMask.complement(IupacMask.mask(pattern.charAt(length - 1 - i)));
+            for (int textMask = 1; textMask < 16; textMask++) {
+                if ((fwd & textMask) != 0) {
+                    forward[textMask][i >>> 6] |= 1L << (i & 63);
+                }
+                if ((rev & textMask) != 0) {
+                    reverse[textMask][i >>> 6] |= 1L << (i & 63);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pattern IUPAC DNA, any case
+     * @param maxErrors the most edits a hit may have
+     * @throws IllegalArgumentException if the pattern is empty or not IUPAC
+     */
+    public static ApproximateMatcher compile(String pattern, int maxErrors) {
+        if (pattern.isEmpty() || !IupacMask.isValid(pattern)) {
+            throw new IllegalArgumentException("Pattern " + pattern + " is not IUPAC DNA");
+        }
+        if (maxErrors < 0) {
+            throw new IllegalArgumentException("maxErrors cannot be negative");
+        }
+        return new ApproximateMatcher(pattern, maxErrors);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Scans a linear text
+     */
+    public void scan(CharSequence text, HitListener listener) {
+        scan(text, false, listener);
+    }
+
+    /**
+     * Reports every end of a match on either strand of text
+     */
+    public void scan(CharSequence text, boolean circular, HitListener listener) {
+        int n = text.length();
+        if (n == 0) {
+            return;
+        }
+        //Column state per strand: vertical positive and negative deltas
+        long[] fwdPv = new long[words];
+        long[] fwdMv = new long[words];
+        long[] revPv = new long[words];
+        long[] revMv = new long[words];
+        Arrays.fill(fwdPv, -1L);
+        Arrays.fill(revPv, -1L);
+        int fwdScore = length;
+        int revScore = length;
+
+        //A circular scan starts early enough for matches across the origin
+        int from = circular ? -(length + maxErrors) : 0;
+        for (int j = from; j < n; j++) {
+            int c = IupacMask.mask(text.charAt(circular ? Math.floorMod(j, n) : j));
+            if (words == 1) {
+                fwdScore += step(forward[c][0], fwdPv, fwdMv);
+                revScore += step(reverse[c][0], revPv, revMv);
+            } else {
+                fwdScore += stepBlocks(forward[c], fwdPv, fwdMv);
+                revScore += stepBlocks(reverse[c], revPv, revMv);
+            }
+            if (j < 0) {
+                continue;
+            }
+            if (fwdScore <= maxErrors) {
+                listener.hit(j + 1, fwdScore, 1);
+            }
+            if (revScore <= maxErrors) {
+                listener.hit(j + 1, revScore, -1);
+            }
+        }
+    }
+
+    /**
+     * @return the number of hits scan would report
+     */
+    public int count(CharSequence text, boolean circular) {
+        final int[] out = new int[1];
+        scan(text, circular, new HitListener() {
+            @Override
+            public void hit(int end, int distance, int strand) {
+                out[0]++;
+            }
+        });
+        return out[0];
+    }
+
+    /**
+     * Advances a single-word column by one text base
+     *
+     * @return the change in the score of the last pattern row
+     */
+    private int step(long eq, long[] pv, long[] mv) {
+        long p = pv[0];
+        long m = mv[0];
+        long xv = eq | m;
+        long xh = (((eq & p) + p) ^ p) | eq;
+        long ph = m | ~(xh | p);
+        long mh = p & xh;
+        int delta = (ph & lastBit) != 0 ? 1 : (mh & lastBit) != 0 ? -1 : 0;
+        ph <<= 1;
+        mh <<= 1;
+        pv[0] = mh | ~(xv | ph);
+        mv[0] = ph & xv;
+        return delta;
+    }
+
+    /**
+     * Advances a multiword column by one text base, carrying each block's
+     * horizontal delta into the next
+     *
+     * @return the change in the score of the last pattern row
+     */
+    private int stepBlocks(long[] eqs, long[] pv, long[] mv) {
+        int hin = 0;
+        for (int b = 0; b < words; b++) {
+            long eq = eqs[b];
+            long p = pv[b];
+            long m = mv[b];
+            long xv = eq | m;
+            if (hin < 0) {
+                eq |= 1L;
+            }
+            long xh = (((eq & p) + p) ^ p) | eq;
+            long ph = m | ~(xh | p);
+            long mh = p & xh;
+            long high = b == words - 1 ? lastBit : Long.MIN_VALUE;
+            int hout = (ph & high) != 0 ? 1 : (mh & high) != 0 ? -1 : 0;
+            ph <<= 1;
+            mh <<= 1;
+            if (hin < 0) {
+                mh |= 1L;
+            } else if (hin > 0) {
+                ph |= 1L;
+            }
+            pv[b] = mh | ~(xv | ph);
+            mv[b] = ph & xv;
+            hin = hout;
+        }
+        return hin;
+    }
+
+    public static void main(String[] args) {
+        String text = "ttgacagctagctcagtcctaggtataatactagtcatcgccgcagcggtttcaggttttagagctagaaatagcaagttaaaataaggctagtccgttatcaacttgaaaaagtggcaccgagtcggtgc";
+
+        //A primer with one substitution and one deletion against the template
+        ApproximateMatcher matcher = ApproximateMatcher.compile("GCTAGCTCAGTCTAGGTATAAT", 2);
+        matcher.scan(text, new HitListener() {
+            @Override
+            public void hit(int end, int distance, int strand) {
+                System.out.println("end " + end + " distance " + distance + " strand " + strand);
+            }
+        });
+
+        //The reverse complement of a stretch, found on the bottom strand
+        ApproximateMatcher rc = ApproximateMatcher.compile(new RevComp().run("gttttagagctagaaatagcaagtt"), 1);
+        System.out.println(rc.count(text, false) + " hits for the reverse complement");
+    }
+}
@@ -0,0 +1,137 @@
+package org.ucb.c5.sequtils;
+
+/**
+ * Orientation- and rotation-independent forms of DNA sequences.
+ *
+ * A circular molecule has no natural origin, and a double-stranded one no
+ * natural top strand, so two descriptions of the same plasmid can differ
+ * by a rotation and a reverse complement.  The canonical form is the
+ * lexicographically least rotation (found in linear time with Booth's
+ * algorithm) of whichever strand gives the smaller result, in upper case
+ * since lower case is only annotation.
+ */
+public final class CanonicalForm {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private CanonicalForm() {
+    }
+
+    /**
+     * Booth's algorithm, comparing case-insensitively
+     *
+     * @return the start of the least rotation of seq, 0 for an empty one
+     */
+    public static int leastRotation(CharSequence seq) {
+        return leastRotation(upper(seq));
+    }
+
+    /**
+     * @param seq a circular sequence
+     * @param doubleStranded whether the reverse complement strand is also
+     * a valid reading of the molecule
+     * @return the least rotation in upper case, taken over both strands if
+     * doubleStranded and every character has a complement
+     */
+    public static String circular(CharSequence seq, boolean doubleStranded) {
+        char[] top = upper(seq);
+        String best = rotate(top, leastRotation(top));
+        if (!doubleStranded || !ComplementTable.hasComplement(seq)) {
+            return best;
+        }
+        ComplementTable.reverseComplementInPlace(top, 0, top.length);
+        String other = rotate(top, leastRotation(top));
+        return other.compareTo(best) < 0 ? other : best;
+    }
+
+    /**
+     * Reverse complements an overhang, keeping a leading "-" that marks a
+     * 3' overhang in place
+     */
+    public static String flipExtension(String ext) {
+        boolean threePrime = ext.startsWith("-");
+        int off = threePrime ? 1 : 0;
+        char[] out = new char[ext.length()];
+        if (threePrime) {
+            out[0] = '-';
+        }
+        int len = ext.length() - off;
+        for (int i = 0; i < len; i++) {
+            out[off + len - 1 - i] = ComplementTable.complement(ext.charAt(off + i));
+        }
+        return new String(out);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of seq, finished with the SplitMix64
+     * mixer so nearby inputs spread over all bits
+     */
+    public static long hash64(CharSequence seq) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < seq.length(); i++) {
+            char c = seq.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static int leastRotation(char[] s) {
+        int n = s.length;
+        if (n == 0) {
+            return 0;
+        }
+        //Failure function over the doubled sequence, indexed modulo n
+        int[] f = new int[2 * n];
+        f[0] = -1;
+        int k = 0;
+        for (int j = 1; j < 2 * n; j++) {
+            char sj = s[j % n];
+            int i = f[j - k - 1];
+            while (i != -1 && sj != s[(k + i + 1) % n]) {
+                if (sj < s[(k + i + 1) % n]) {
+                    k = j - i - 1;
+                }
+                i = f[i];
+            }
+            if (sj != s[(k + i + 1) % n]) {
+                //Here i is -1
+                if (sj < s[k % n]) {
+                    k = j;
+                }
+                f[j - k] = -1;
+            } else {
+                f[j - k] = i + 1;
+            }
+        }
+        return k % n;
+    }
+
+    private static String rotate(char[] s, int start) {
+        char[] out = new char[s.length];
+        System.arraycopy(s, start, out, 0, s.length - start);
+        System.arraycopy(s, 0, out, s.length - start, start);
+        return new String(out);
+    }
+
+    private static char[] upper(CharSequence seq) {
+        char[] out = new char[seq.length()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = Character.toUpperCase(seq.charAt(i));
+        }
+        return out;
+    }
+
+    public static void main(String[] args) {
+        String plasmid = "ttGGATCCaaaGAATTCcc";
+        String rotated = plasmid.substring(7) + plasmid.substring(0, 7);
+        String flipped = new RevComp().run(rotated);
+        System.out.println(circular(plasmid, true));
+        System.out.println(circular(rotated, true));
+        System.out.println(circular(flipped, true));
+        System.out.println(Long.toHexString(hash64(circular(flipped, true))));
+    }
+}
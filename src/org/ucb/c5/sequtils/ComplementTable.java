@@ -0,0 +1,136 @@
+package org.ucb.c5.sequtils;
+
+/**
+ * Shared complement engine behind RevComp, PolyRevComp and
+ * SequenceUtils.complement.
+ *
+ * Complements are looked up in a precomputed 128-entry table covering the
+ * full IUPAC alphabet in both cases, and results are written into arrays
+ * sized up front.  Any character without a complement is rejected with the
+ * same IllegalArgumentException regardless of which entry point was used.
+ */
+public final class ComplementTable {
+
+    private static final char[] TABLE = new char[128];
+
+    static {
+        String forward = "ACGTRYSWKMBDHVN";
+        String reverse = "TGCAYRSWMKVHDBN";
+        for (int i = 0; i < forward.length(); i++) {
+            char base = forward.charAt(i);
+            char comp = reverse.charAt(i);
+            TABLE[base] = comp;
+            TABLE[Character.toLowerCase(base)] = Character.toLowerCase(comp);
+        }
+        //RNA's U pairs with A, as T does
+        TABLE['U'] = 'A';
+        TABLE['u'] = 'a';
+    }
+
+    private ComplementTable() {
+    }
+
+    /**
+     * @param abase a nucleotide character
+     * @return the complementary base, preserving case
+     * @throws IllegalArgumentException if abase has no complement
+     */
+    public static char complement(char abase) {
+        char comp = abase < 128 ? TABLE[abase] : 0;
+        if (comp == 0) {
+            throw new IllegalArgumentException("No complementary base for " + abase);
+        }
+        return comp;
+    }
+
+    /**
+     * @return true if every character of seq has a complement
+     */
+    public static boolean hasComplement(CharSequence seq) {
+        for (int i = 0; i < seq.length(); i++) {
+            char c = seq.charAt(i);
+            if (c >= 128 || TABLE[c] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as complement(char) for ASCII bytes
+     */
+    public static byte complement(byte abase) {
+        return (byte) complement((char) (abase & 0xFF));
+    }
+
+    /**
+     * Writes the complement of src into dst[0, src.length())
+     */
+    public static void complement(CharSequence src, char[] dst) {
+        int len = src.length();
+        checkCapacity(len, dst.length);
+        for (int i = 0; i < len; i++) {
+            dst[i] = complement(src.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the reverse complement of src into dst[0, src.length())
+     */
+    public static void reverseComplement(CharSequence src, char[] dst) {
+        int len = src.length();
+        checkCapacity(len, dst.length);
+        for (int i = 0, j = len - 1; i < len; i++, j--) {
+            dst[j] = complement(src.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the reverse complement of src[srcOff, srcOff + len) into
+     * dst[dstOff, dstOff + len).  src and dst must not be the same array.
+     */
+    public static void reverseComplement(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        checkCapacity(dstOff + len, dst.length);
+        for (int i = 0, j = dstOff + len - 1; i < len; i++, j--) {
+            dst[j] = complement(src[srcOff + i]);
+        }
+    }
+
+    /**
+     * Reverse complements buf[off, off + len) in place
+     */
+    public static void reverseComplementInPlace(char[] buf, int off, int len) {
+        int i = off;
+        int j = off + len - 1;
+        while (i < j) {
+            char left = complement(buf[i]);
+            buf[i++] = complement(buf[j]);
+            buf[j--] = left;
+        }
+        if (i == j) {
+            buf[i] = complement(buf[i]);
+        }
+    }
+
+    /**
+     * Reverse complements buf[off, off + len) in place
+     */
+    public static void reverseComplementInPlace(byte[] buf, int off, int len) {
+        int i = off;
+        int j = off + len - 1;
+        while (i < j) {
+            byte left = complement(buf[i]);
+            buf[i++] = complement(buf[j]);
+            buf[j--] = left;
+        }
+        if (i == j) {
+            buf[i] = complement(buf[i]);
+        }
+    }
+
+    private static void checkCapacity(int needed, int available) {
+        if (needed > available) {
+            throw new IllegalArgumentException("Destination buffer holds " + available + " bases but " + needed + " are needed");
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package org.ucb.c5.sequtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Base composition of a sequence, prepared once and queried by window.
+ *
+ * Construction makes one pass that records prefix counts of A, C, G and T
+ * (either case), after which the counts, GC fraction, GC skew and base
+ * entropy of any window are O(1).  The longest homopolymer run is found in
+ * the same pass.  Sequences of PARALLEL_THRESHOLD bases or more are split
+ * into chunks on a fork-join pool; prefix counts are stitched together with
+ * each chunk's carry, and homopolymer runs that straddle a chunk boundary
+ * are merged.
+ *
+ * Intended for synthesis feasibility checks, eg on gene samples, where we
+ * want sliding-window GC, skew, homopolymers and low-complexity regions.
+ */
+public final class CompositionProfile {
+
+    public static final int PARALLEL_THRESHOLD = 1 << 20;
+    private static final int CHUNK = 1 << 18;
+
+    private final int length;
+
+    //counts[b][i] is the number of base b in seq[0, i), b in A, C, G, T order
+    private final int[][] counts;
+
+    private final int homopolymerStart;
+    private final int homopolymerLength;
+
+    private CompositionProfile(int length, int[][] counts, Runs runs) {
+        this.length = length;
+        this.counts = counts;
+        this.homopolymerStart = runs.bestStart;
+        this.homopolymerLength = runs.bestLength;
+    }
+
+    /**
+     * Profiles seq, in parallel on the common pool if it is long enough
+     */
+    public static CompositionProfile of(CharSequence seq) {
+        return of(seq, ForkJoinPool.commonPool());
+    }
+
+    public static CompositionProfile of(CharSequence seq, ForkJoinPool pool) {
+        int n = seq.length();
+        int[][] counts = new int[4][n + 1];
+        Runs runs;
+        if (n < PARALLEL_THRESHOLD) {
+            runs = scan(seq, 0, n, counts);
+        } else {
+            int numChunks = (n + CHUNK - 1) / CHUNK;
+            runs = pool.invoke(new ScanTask(seq, 0, numChunks, counts));
+
+            //Each chunk's carry is the running total of the chunks before it
+            int[][] carries = new int[numChunks][4];
+            for (int k = 1; k < numChunks; k++) {
+                for (int b = 0; b < 4; b++) {
+                    carries[k][b] = carries[k - 1][b] + counts[b][k * CHUNK];
+                }
+            }
+            pool.invoke(new CarryTask(counts, carries, 1, numChunks));
+        }
+        return new CompositionProfile(n, counts, runs);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param base one of A, C, G, T in either case
+     * @return how many times base occurs in [start, end)
+     */
+    public int count(char base, int start, int end) {
+        int code = PackedSequence.code(base);
+        if (code < 0) {
+            throw new IllegalArgumentException("Can only count A, C, G or T, not " + base);
+        }
+        checkWindow(start, end);
+        return counts[code][end] - counts[code][start];
+    }
+
+    /**
+     * @return (G + C) / window length for [start, end)
+     */
+    public double gcFraction(int start, int end) {
+        checkWindow(start, end);
+        if (end == start) {
+            return 0.0;
+        }
+        int gc = counts[1][end] - counts[1][start] + counts[2][end] - counts[2][start];
+        return gc / (1.0 * (end - start));
+    }
+
+    /**
+     * @return (G - C) / (G + C) for [start, end), or 0 if there is no G or C
+     */
+    public double gcSkew(int start, int end) {
+        checkWindow(start, end);
+        int c = counts[1][end] - counts[1][start];
+        int g = counts[2][end] - counts[2][start];
+        if (g + c == 0) {
+            return 0.0;
+        }
+        return (g - c) / (1.0 * (g + c));
+    }
+
+    /**
+     * Shannon entropy in bits of the A/C/G/T composition of [start, end).
+     * 2.0 is a perfectly mixed window and 0.0 a single repeated base.
+     * Non-ACGT characters are left out.
+     */
+    public double entropy(int start, int end) {
+        checkWindow(start, end);
+        int total = 0;
+        int[] window = new int[4];
+        for (int b = 0; b < 4; b++) {
+            window[b] = counts[b][end] - counts[b][start];
+            total += window[b];
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        double out = 0.0;
+        for (int b = 0; b < 4; b++) {
+            if (window[b] > 0) {
+                double p = window[b] / (1.0 * total);
+                out -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the GC fraction of each window of the given size, starting
+     * every step bases
+     */
+    public double[] slidingGC(int window, int step) {
+        int num = numWindows(window, step);
+        double[] out = new double[num];
+        for (int i = 0; i < num; i++) {
+            out[i] = gcFraction(i * step, i * step + window);
+        }
+        return out;
+    }
+
+    /**
+     * @return the GC skew of each window of the given size, starting every
+     * step bases
+     */
+    public double[] slidingSkew(int window, int step) {
+        int num = numWindows(window, step);
+        double[] out = new double[num];
+        for (int i = 0; i < num; i++) {
+            out[i] = gcSkew(i * step, i * step + window);
+        }
+        return out;
+    }
+
+    /**
+     * @return the start of each window whose base entropy is below
+     * minEntropy bits, in increasing order
+     */
+    public int[] lowComplexityWindows(int window, int step, double minEntropy) {
+        int num = numWindows(window, step);
+        int[] flagged = new int[num];
+        int found = 0;
+        for (int i = 0; i < num; i++) {
+            if (entropy(i * step, i * step + window) < minEntropy) {
+                flagged[found++] = i * step;
+            }
+        }
+        return Arrays.copyOf(flagged, found);
+    }
+
+    /**
+     * @return the length of the longest run of one base, case-insensitive
+     */
+    public int getLongestHomopolymer() {
+        return homopolymerLength;
+    }
+
+    /**
+     * @return where the longest homopolymer starts, or -1 if there is none
+     */
+    public int getLongestHomopolymerStart() {
+        return homopolymerStart;
+    }
+
+    private int numWindows(int window, int step) {
+        if (window <= 0 || step <= 0) {
+            throw new IllegalArgumentException("Window and step must be positive");
+        }
+        if (window > length) {
+            return 0;
+        }
+        return (length - window) / step + 1;
+    }
+
+    private void checkWindow(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+    }
+
+    /**
+     * Fills counts[b][from + 1 .. to] with counts relative to from, and
+     * summarizes the homopolymer runs of seq[from, to)
+     */
+    private static Runs scan(CharSequence seq, int from, int to, int[][] counts) {
+        int[] a = counts[0];
+        int[] c = counts[1];
+        int[] g = counts[2];
+        int[] t = counts[3];
+        int na = 0;
+        int nc = 0;
+        int ng = 0;
+        int nt = 0;
+
+        Runs runs = new Runs();
+        runs.length = to - from;
+        int runCode = -1;
+        int runStart = from;
+
+        for (int i = from; i < to; i++) {
+            int code = PackedSequence.code(seq.charAt(i));
+            switch (code) {
+                case 0:
+                    na++;
+                    break;
+                case 1:
+                    nc++;
+                    break;
+                case 2:
+                    ng++;
+                    break;
+                case 3:
+                    nt++;
+                    break;
+            }
+            a[i + 1] = na;
+            c[i + 1] = nc;
+            g[i + 1] = ng;
+            t[i + 1] = nt;
+
+            if (code != runCode) {
+                runs.close(runCode, runStart, i, from);
+                runCode = code;
+                runStart = i;
+            }
+        }
+        runs.close(runCode, runStart, to, from);
+        return runs;
+    }
+
+    /**
+     * Homopolymer summary of a stretch of sequence, mergeable with its
+     * neighbours
+     */
+    private static final class Runs {
+
+        int length;
+        int firstCode = -1;
+        int lastCode = -1;
+        int prefix;   //length of the run touching the left edge
+        int suffix;   //length of the run touching the right edge
+        int bestStart = -1;
+        int bestLength;
+
+        void close(int code, int start, int end, int from) {
+            if (end == start) {
+                return;
+            }
+            if (start == from) {
+                firstCode = code;
+                prefix = code < 0 ? 0 : end - start;
+            }
+            lastCode = code;
+            suffix = code < 0 ? 0 : end - start;
+            if (code >= 0 && end - start > bestLength) {
+                bestLength = end - start;
+                bestStart = start;
+            }
+        }
+
+        static Runs merge(Runs left, Runs right, int boundary) {
+            Runs out = new Runs();
+            out.length = left.length + right.length;
+            out.firstCode = left.length > 0 ? left.firstCode : right.firstCode;
+            out.lastCode = right.length > 0 ? right.lastCode : left.lastCode;
+
+            boolean joined = left.lastCode >= 0 && left.lastCode == right.firstCode;
+            out.prefix = left.prefix == left.length && joined ? left.length + right.prefix : left.prefix;
+            out.suffix = right.suffix == right.length && joined ? right.length + left.suffix : right.suffix;
+
+            //Candidates in position order, so ties go to the earliest run
+            out.bestLength = left.bestLength;
+            out.bestStart = left.bestStart;
+            if (joined && left.suffix + right.prefix > out.bestLength) {
+                out.bestLength = left.suffix + right.prefix;
+                out.bestStart = boundary - left.suffix;
+            }
+            if (right.bestLength > out.bestLength) {
+                out.bestLength = right.bestLength;
+                out.bestStart = right.bestStart;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * First pass over chunks [lo, hi): each chunk fills in prefix counts
+     * relative to its own start
+     */
+    private static final class ScanTask extends RecursiveTask<Runs> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence seq;
+        private final int lo;
+        private final int hi;
+        private final int[][] counts;
+
+        ScanTask(CharSequence seq, int lo, int hi, int[][] counts) {
+            this.seq = seq;
+            this.lo = lo;
+            this.hi = hi;
+            this.counts = counts;
+        }
+
+        @Override
+        protected Runs compute() {
+            if (hi - lo == 1) {
+                int from = lo * CHUNK;
+                return scan(seq, from, Math.min(seq.length(), from + CHUNK), counts);
+            }
+            int mid = (lo + hi) >>> 1;
+            ScanTask left = new ScanTask(seq, lo, mid, counts);
+            left.fork();
+            Runs right = new ScanTask(seq, mid, hi, counts).compute();
+            return Runs.merge(left.join(), right, mid * CHUNK);
+        }
+    }
+
+    /**
+     * Second pass over chunks [lo, hi): adds to each chunk the totals of all
+     * chunks before it, as held in carries
+     */
+    private static final class CarryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] counts;
+        private final int[][] carries;
+        private final int lo;
+        private final int hi;
+
+        CarryTask(int[][] counts, int[][] carries, int lo, int hi) {
+            this.counts = counts;
+            this.carries = carries;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                int from = lo * CHUNK;
+                int to = Math.min(counts[0].length - 1, from + CHUNK);
+                for (int b = 0; b < 4; b++) {
+                    int[] col = counts[b];
+                    int add = carries[lo][b];
+                    for (int i = from + 1; i <= to; i++) {
+                        col[i] += add;
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new CarryTask(counts, carries, lo, mid), new CarryTask(counts, carries, mid, hi));
+        }
+    }
+
+    public static void main(String[] args) {
+        String seq = "ATGTCTTATTCAAAGCATGGCATCGTACAAGAAAAAAAAATGAAGACGAAATACCATATGGAAGGCAGTGTCAATGGCCATGAATTTACGATCGAAGGTGTAGG";
+        CompositionProfile profile = CompositionProfile.of(seq);
+        System.out.println("GC overall: " + profile.gcFraction(0, seq.length()) + " vs " + SequenceUtils.calcGC(seq));
+        System.out.println("Longest homopolymer: " + profile.getLongestHomopolymer() + " at " + profile.getLongestHomopolymerStart());
+        double[] gc = profile.slidingGC(20, 10);
+        for (int i = 0; i < gc.length; i++) {
+            System.out.println((i * 10) + "\tGC " + gc[i] + "\tskew " + profile.gcSkew(i * 10, i * 10 + 20));
+        }
+        int[] low = profile.lowComplexityWindows(10, 1, 1.0);
+        System.out.println("Low complexity windows: " + Arrays.toString(low));
+    }
+}
@@ -0,0 +1,141 @@
+package org.ucb.c5.sequtils;
+
+/**
+ * A compiled IUPAC pattern such as NGG or GCCNNNNNGGC.
+ *
+ * Each pattern position is held as an IupacMask.  A text base matches when
+ * every base it could be is allowed by the pattern, ie when
+ * (text & pattern) == text, so an N in the pattern accepts anything but an N
+ * in the text only matches an N in the pattern.  This is the conservative
+ * reading wanted for recognition sites and PAMs: a match is only reported
+ * where it is certain.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class DegeneratePattern {
+
+    private final String pattern;
+    private final byte[] masks;
+
+    private DegeneratePattern(String pattern, byte[] masks) {
+        this.pattern = pattern;
+        this.masks = masks;
+    }
+
+    /**
+     * @param pattern a non-empty string of IUPAC codes, either case
+     * @return the compiled pattern
+     * @throws IllegalArgumentException if pattern holds a non-IUPAC character
+     */
+    public static DegeneratePattern compile(String pattern) {
+        byte[] masks = new byte[pattern.length()];
+        for (int i = 0; i < masks.length; i++) {
+            int mask = IupacMask.mask(pattern.charAt(i));
+            if (mask == 0) {
+                throw new IllegalArgumentException("Pattern " + pattern + " has non-IUPAC character " + pattern.charAt(i));
+            }
+            masks[i] = (byte) mask;
+        }
+        if (masks.length == 0) {
+            throw new IllegalArgumentException("Pattern is empty");
+        }
+        return new DegeneratePattern(pattern.toUpperCase(), masks);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public int length() {
+        return masks.length;
+    }
+
+    /**
+     * @return the mask allowed at position i of the pattern
+     */
+    public int maskAt(int i) {
+        return masks[i];
+    }
+
+    /**
+     * @return true if the pattern reads the same on both strands, as most
+     * Type II recognition sites do
+     */
+    public boolean isPalindromic() {
+        int len = masks.length;
+        for (int i = 0; i < len; i++) {
+            if (masks[i] != IupacMask.complement(masks[len - 1 - i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the pattern for the other strand
+     */
+    public DegeneratePattern reverseComplement() {
+        int len = masks.length;
+        byte[] rc = new byte[len];
+        char[] text = new char[len];
+        for (int i = 0; i < len; i++) {
+            rc[len - 1 - i] = (byte) IupacMask.complement(masks[i]);
+            text[len - 1 - i] = IupacMask.code(rc[len - 1 - i]);
+        }
+        return new DegeneratePattern(new String(text), rc);
+    }
+
+    /**
+     * @return true if the pattern matches text starting at pos
+     */
+    public boolean matchesAt(CharSequence text, int pos) {
+        if (pos < 0 || pos + masks.length > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < masks.length; i++) {
+            int t = IupacMask.mask(text.charAt(pos + i));
+            if (t == 0 || (t & masks[i]) != t) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the whole of text matches the pattern
+     */
+    public boolean matches(CharSequence text) {
+        return text.length() == masks.length && matchesAt(text, 0);
+    }
+
+    /**
+     * @return the first position at or after from where the pattern
+     * matches, or -1
+     */
+    public int indexOf(CharSequence text, int from) {
+        int last = text.length() - masks.length;
+        for (int pos = Math.max(from, 0); pos <= last; pos++) {
+            if (matchesAt(text, pos)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    public static void main(String[] args) {
+        DegeneratePattern pam = DegeneratePattern.compile("NGG");
+        String dna = "ATGTCTTATTCAAAGCATGGCATCGTACAAGAAATGAAG";
+        System.out.println("First NGG at " + pam.indexOf(dna, 0));
+
+        DegeneratePattern bglI = DegeneratePattern.compile("GCCNNNNNGGC");
+        System.out.println(bglI + " palindromic: " + bglI.isPalindromic());
+
+        DegeneratePattern bsaI = DegeneratePattern.compile("GGTCTC");
+        System.out.println(bsaI + " on the other strand is " + bsaI.reverseComplement());
+    }
+}
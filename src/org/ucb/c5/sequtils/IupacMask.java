@@ -0,0 +1,93 @@
+package org.ucb.c5.sequtils;
+
+/**
+ * 4-bit IUPAC alphabet in which each code is the set of bases it allows:
+ * A=1, C=2, G=4, T=8, so R (A or G) is 5 and N is 15.  Characters outside
+ * the alphabet map to 0.  Both cases are accepted.
+ *
+ * Testing one base against another is then a single bitwise AND, which is
+ * what DegeneratePattern and sequence validation are built on.
+ */
+public final class IupacMask {
+
+    public static final int A = 1;
+    public static final int C = 2;
+    public static final int G = 4;
+    public static final int T = 8;
+    public static final int N = A | C | G | T;
+
+    private static final byte[] MASKS = new byte[128];
+    private static final char[] CODES = new char[16];
+
+    static {
+        String codes = "ACMGRSVTWYHKDBN";
+        int[] masks = {A, C, A | C, G, A | G, C | G, A | C | G, T, A | T, C | T, A | C | T, G | T, A | G | T, C | G | T, N};
+        for (int i = 0; i < codes.length(); i++) {
+            char code = codes.charAt(i);
+            MASKS[code] = (byte) masks[i];
+            MASKS[Character.toLowerCase(code)] = (byte) masks[i];
+            CODES[masks[i]] = code;
+        }
+    }
+
+    private IupacMask() {
+    }
+
+    /**
+     * @return the set of bases c allows, or 0 if c is not an IUPAC code
+     */
+    public static int mask(char c) {
+        return c < 128 ? MASKS[c] : 0;
+    }
+
+    /**
+     * @return the upper case IUPAC code for a non-zero mask
+     */
+    public static char code(int mask) {
+        return CODES[mask & N];
+    }
+
+    /**
+     * @return the mask of the complementary code, ie the bit order reversed
+     */
+    public static int complement(int mask) {
+        return ((mask & A) << 3) | ((mask & C) << 1) | ((mask & G) >>> 1) | ((mask & T) >>> 3);
+    }
+
+    /**
+     * Replacement for matching against [ACGTRYSWKMBDHVNacgtryswkmbdhvn]+
+     *
+     * @return true if seq is non-empty and every character is an IUPAC code
+     */
+    public static boolean isValid(CharSequence seq) {
+        int len = seq.length();
+        if (len == 0) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (mask(seq.charAt(i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replacement for matching against [ACGTacgt]+
+     *
+     * @return true if seq is non-empty and holds only unambiguous bases
+     */
+    public static boolean isUnambiguous(CharSequence seq) {
+        int len = seq.length();
+        if (len == 0) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            int m = mask(seq.charAt(i));
+            if (m == 0 || (m & (m - 1)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
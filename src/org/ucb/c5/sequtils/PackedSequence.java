@@ -0,0 +1,357 @@
+package org.ucb.c5.sequtils;
+
+import java.util.Arrays;
+
+/**
+ * A nucleotide sequence stored at 2 bits per base.
+ *
+ * A, C, G and T are packed 32 to a long as 0, 1, 2 and 3, so the complement
+ * of a code is 3 - code.  Any other character (IUPAC ambiguity codes, U, or
+ * anything else the caller supplied) is kept verbatim in a sorted side table
+ * of positions.  Lower case is annotation in construction files, so it is
+ * preserved as a sorted list of [start, end) runs rather than per base.
+ * Decoding therefore reproduces the input exactly.
+ *
+ * Instances are immutable.  Code that only needs bases can read codeAt()
+ * and the packed words directly instead of decoding to a String.
+ */
+public final class PackedSequence implements CharSequence {
+
+    private static final char[] UPPER = {'A', 'C', 'G', 'T'};
+    private static final char[] LOWER = {'a', 'c', 'g', 't'};
+    private static final int[] NO_INTS = new int[0];
+    private static final char[] NO_CHARS = new char[0];
+
+    private final long[] words;
+    private final int length;
+
+    //Positions not in ACGTacgt and the characters found there
+    private final int[] otherPos;
+    private final char[] otherChars;
+
+    //Lower case runs as start0, end0, start1, end1...
+    private final int[] lowerRuns;
+
+    public PackedSequence(CharSequence seq) {
+        this.length = seq.length();
+        this.words = new long[(length + 31) >>> 5];
+
+        int[] pos = NO_INTS;
+        char[] chars = NO_CHARS;
+        int others = 0;
+        int[] runs = NO_INTS;
+        int numRuns = 0;
+        int runStart = -1;
+
+        for (int i = 0; i < length; i++) {
+            char c = seq.charAt(i);
+            int code = code(c);
+            if (code < 0) {
+                if (others == pos.length) {
+                    pos = Arrays.copyOf(pos, Math.max(8, others * 2));
+                    chars = Arrays.copyOf(chars, pos.length);
+                }
+                pos[others] = i;
+                chars[others] = c;
+                others++;
+            } else {
+                words[i >>> 5] |= ((long) code) << ((i & 31) << 1);
+            }
+
+            boolean lower = Character.isLowerCase(c);
+            if (lower && runStart < 0) {
+                runStart = i;
+            } else if (!lower && runStart >= 0) {
+                if (numRuns + 2 > runs.length) {
+                    runs = Arrays.copyOf(runs, Math.max(8, runs.length * 2));
+                }
+                runs[numRuns++] = runStart;
+                runs[numRuns++] = i;
+                runStart = -1;
+            }
+        }
+        if (runStart >= 0) {
+            runs = Arrays.copyOf(runs, numRuns + 2);
+            runs[numRuns++] = runStart;
+            runs[numRuns++] = length;
+        }
+
+        this.otherPos = others == 0 ? NO_INTS : Arrays.copyOf(pos, others);
+        this.otherChars = others == 0 ? NO_CHARS : Arrays.copyOf(chars, others);
+        this.lowerRuns = numRuns == 0 ? NO_INTS : Arrays.copyOf(runs, numRuns);
+    }
+
+    private PackedSequence(long[] words, int length, int[] otherPos, char[] otherChars, int[] lowerRuns) {
+        this.words = words;
+        this.length = length;
+        this.otherPos = otherPos;
+        this.otherChars = otherChars;
+        this.lowerRuns = lowerRuns;
+    }
+
+    /**
+     * @return 0-3 for A, C, G, T in either case, -1 for anything else
+     */
+    public static int code(char c) {
+        switch (c) {
+            case 'A':
+            case 'a':
+                return 0;
+            case 'C':
+            case 'c':
+                return 1;
+            case 'G':
+            case 'g':
+                return 2;
+            case 'T':
+            case 't':
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the 2-bit code of the base at index, or -1 if that position
+     * holds a character other than A, C, G or T
+     */
+    public int codeAt(int index) {
+        checkIndex(index);
+        if (otherPos.length > 0 && Arrays.binarySearch(otherPos, index) >= 0) {
+            return -1;
+        }
+        return rawCode(index);
+    }
+
+    /**
+     * @return true if every position is A, C, G or T, in which case codeAt()
+     * never returns -1 and getWords() fully describes the bases
+     */
+    public boolean isUnambiguous() {
+        return otherPos.length == 0;
+    }
+
+    /**
+     * @return a copy of the packed words, base i at bits 2*(i%32) of word
+     * i/32; positions outside ACGT read as 0
+     */
+    public long[] getWords() {
+        return words.clone();
+    }
+
+    @Override
+    public char charAt(int index) {
+        checkIndex(index);
+        if (otherPos.length > 0) {
+            int found = Arrays.binarySearch(otherPos, index);
+            if (found >= 0) {
+                return otherChars[found];
+            }
+        }
+        int code = rawCode(index);
+        return isLower(index) ? LOWER[code] : UPPER[code];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return decode(start, end);
+    }
+
+    /**
+     * Tallies A, C, G and T in the packed words without decoding.
+     *
+     * @param counts receives the A, C, G and T totals at indices 0 to 3; it
+     * is added to, not cleared
+     */
+    public void countBases(long[] counts) {
+        final long lows = 0x5555555555555555L;
+        long[] tally = new long[4];
+        for (long word : words) {
+            long hi = (word >>> 1) & lows;
+            long lo = word & lows;
+            tally[0] += Long.bitCount(~hi & ~lo & lows);
+            tally[1] += Long.bitCount(~hi & lo);
+            tally[2] += Long.bitCount(hi & ~lo);
+            tally[3] += Long.bitCount(hi & lo);
+        }
+        //Padding in the last word and non-ACGT positions were counted as A
+        tally[0] -= ((long) words.length << 5) - length;
+        tally[0] -= otherPos.length;
+        for (int i = 0; i < 4; i++) {
+            counts[i] += tally[i];
+        }
+    }
+
+    /**
+     * @return the reverse complement, computed on the packed form
+     * @throws IllegalArgumentException if a non-ACGT position has no complement
+     */
+    public PackedSequence reverseComplement() {
+        long[] rcWords = new long[words.length];
+        for (int i = 0; i < length; i++) {
+            int j = length - 1 - i;
+            rcWords[j >>> 5] |= ((long) (3 - rawCode(i))) << ((j & 31) << 1);
+        }
+
+        int others = otherPos.length;
+        int[] rcPos = others == 0 ? NO_INTS : new int[others];
+        char[] rcChars = others == 0 ? NO_CHARS : new char[others];
+        for (int k = 0; k < others; k++) {
+            int j = length - 1 - otherPos[k];
+            rcPos[others - 1 - k] = j;
+            rcChars[others - 1 - k] = ComplementTable.complement(otherChars[k]);
+            //Clear the complement of the placeholder 0 written above
+            rcWords[j >>> 5] &= ~(3L << ((j & 31) << 1));
+        }
+
+        int numRuns = lowerRuns.length;
+        int[] rcRuns = numRuns == 0 ? NO_INTS : new int[numRuns];
+        for (int k = 0; k < numRuns; k += 2) {
+            rcRuns[numRuns - 2 - k] = length - lowerRuns[k + 1];
+            rcRuns[numRuns - 1 - k] = length - lowerRuns[k];
+        }
+        return new PackedSequence(rcWords, length, rcPos, rcChars, rcRuns);
+    }
+
+    @Override
+    public String toString() {
+        return decode(0, length);
+    }
+
+    /**
+     * @return the characters from start to end, walking the side tables
+     * from the first entries at or after start
+     */
+    private String decode(int start, int end) {
+        char[] out = new char[end - start];
+        int other = start == 0 ? 0 : insertionPoint(Arrays.binarySearch(otherPos, start));
+        int run = 0;
+        if (start > 0 && lowerRuns.length > 0) {
+            //Skip the runs ending at or before start
+            int lo = 0;
+            int hi = lowerRuns.length / 2;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lowerRuns[2 * mid + 1] <= start) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            run = 2 * lo;
+        }
+        for (int i = start; i < end; i++) {
+            if (other < otherPos.length && otherPos[other] == i) {
+                out[i - start] = otherChars[other++];
+                continue;
+            }
+            while (run < lowerRuns.length && lowerRuns[run + 1] <= i) {
+                run += 2;
+            }
+            boolean lower = run < lowerRuns.length && lowerRuns[run] <= i;
+            out[i - start] = lower ? LOWER[rawCode(i)] : UPPER[rawCode(i)];
+        }
+        return new String(out);
+    }
+
+    private static int insertionPoint(int found) {
+        return found >= 0 ? found : -found - 1;
+    }
+
+    /**
+     * @return a 64-bit hash of exactly this sequence, case included, taken
+     * from the packed form without decoding it
+     */
+    public long hash64() {
+        long hash = mix(length);
+        for (long word : words) {
+            hash = mix(hash ^ word);
+        }
+        for (int i = 0; i < otherPos.length; i++) {
+            hash = mix(hash ^ (((long) otherPos[i] << 16) | otherChars[i]));
+        }
+        for (int run : lowerRuns) {
+            hash = mix(hash ^ run);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PackedSequence)) {
+            return false;
+        }
+        PackedSequence other = (PackedSequence) o;
+        return length == other.length
+                && Arrays.equals(words, other.words)
+                && Arrays.equals(otherPos, other.otherPos)
+                && Arrays.equals(otherChars, other.otherChars)
+                && Arrays.equals(lowerRuns, other.lowerRuns);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(words);
+        hash = 31 * hash + Arrays.hashCode(otherChars);
+        hash = 31 * hash + Arrays.hashCode(lowerRuns);
+        return 31 * hash + length;
+    }
+
+    private int rawCode(int index) {
+        return (int) (words[index >>> 5] >>> ((index & 31) << 1)) & 3;
+    }
+
+    private boolean isLower(int index) {
+        if (lowerRuns.length == 0) {
+            return false;
+        }
+        //Find the last run starting at or before index
+        int lo = 0;
+        int hi = lowerRuns.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lowerRuns[2 * mid] <= index) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= 0 && index < lowerRuns[2 * hi + 1];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+    }
+
+    public static void main(String[] args) {
+        String seq = "gaaacccGAGGAGaaaaaaaaNNRYacgt";
+        PackedSequence packed = new PackedSequence(seq);
+        System.out.println(seq);
+        System.out.println(packed);
+        System.out.println(packed.reverseComplement());
+        System.out.println(new RevComp().run(seq));
+
+        long[] counts = new long[4];
+        packed.countBases(counts);
+        System.out.println("A=" + counts[0] + " C=" + counts[1] + " G=" + counts[2] + " T=" + counts[3]);
+    }
+}
@@ -9,39 +9,31 @@ import org.ucb.c5.constructionfile.model.Polynucleotide;
  * @author J. Christopher Anderson
  */
 public class PolyRevComp {
-    private RevComp revcomp;
 
     public void initiate() throws Exception {
-        revcomp = new RevComp();
-        revcomp.initiate();
     }
 
-    public Polynucleotide run(Polynucleotide frag) throws Exception {          
-        String rc = revcomp.run(frag.getSequence());
-
-        String new5 = null;
-        String new3 = null;
+    /**
+     * @return the reverse complement, cached on frag after the first call
+     */
+    public Polynucleotide run(Polynucleotide frag) throws Exception {
+        return frag.getReverseComplement();
+    }
 
-        if (frag.getExt3().startsWith("-")) {
-            String old3 = frag.getExt3().substring(1);
-            new5 = "-" + revcomp.run(old3);
-        } else {
-            new5 = revcomp.run(frag.getExt3());
-        }
+    /**
+     * Builds the reverse complement of frag; Polynucleotide calls this once
+     * and keeps the result
+     */
+    public static Polynucleotide flip(Polynucleotide frag) {
+        //Flip the bases on the packed form rather than decoding them
+        PackedSequence rc = frag.getPackedSequence().reverseComplement();
 
-        if (frag.getExt5().startsWith("-")) {
-            String old5 = frag.getExt5().substring(1);
-            new3 = "-" + revcomp.run(old5);
-        } else {
-            new3 = revcomp.run(frag.getExt5());
-        }
-        
+        //The old 3' extension becomes the new 5' one and vice versa
+        String new5 = CanonicalForm.flipExtension(frag.getExt3());
+        String new3 = CanonicalForm.flipExtension(frag.getExt5());
         
         //flip the modifications
-        Polynucleotide out = new Polynucleotide(rc, new5, new3,frag.isIsDoubleStranded(),false,false,frag.getMod3(),frag.getMod5());
-        
-        
-        return out;
+        return new Polynucleotide(rc, new5, new3, frag.isIsDoubleStranded(), frag.isIsRNA(), false, frag.getMod3(), frag.getMod5());
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,474 @@
+package org.ucb.c5.sequtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.constructionfile.model.RestrictionEnzyme;
+
+/**
+ * Finds the sites of many restriction enzymes in one pass.
+ *
+ * All sites, and the reverse complements of the non-palindromic ones, are
+ * compiled into a single Aho-Corasick automaton over A, C, G and T.
+ * Degenerate sites are expanded into every concrete sequence they allow,
+ * up to MAX_EXPANSIONS; beyond that a site is matched position by position
+ * with its DegeneratePattern instead.  Windows of the text holding
+ * anything other than A, C, G or T are also checked with the patterns, so
+ * results follow the DegeneratePattern rules exactly.  A circular molecule
+ * is scanned a little past its origin so that sites spanning it are found.
+ *
+ * A scanner is immutable once built and can be shared between threads.
+ */
+public class RestrictionScanner {
+
+    public static final int MAX_EXPANSIONS = 256;
+
+    private final List<RestrictionEnzyme> enzymes;
+    private final int maxLength;
+
+    //The automaton: goTo[state * 4 + base], fail links collapsed into goTo
+    private final int[] goTo;
+    //Patterns ending at each state, as a linked list through outNext
+    private final int[] outHead;
+    private final int[] outNext;
+    private final int[] outPattern;
+    //Nearest state along the fail chain that has patterns of its own
+    private final int[] dictLink;
+
+    //Per pattern: which enzyme, which strand and how long
+    private final int[] patEnzyme;
+    private final int[] patStrand;
+    private final int[] patLength;
+    private final DegeneratePattern[] patMatcher;
+    private final boolean[] patExpanded;
+
+    public RestrictionScanner(List<RestrictionEnzyme> enzymes) {
+        this.enzymes = new ArrayList<>(enzymes);
+
+        //Collect the patterns: each site, plus its reverse complement if different
+        List<DegeneratePattern> matchers = new ArrayList<>();
+        List<int[]> meta = new ArrayList<>();
+        int longest = 0;
+        for (int e = 0; e < this.enzymes.size(); e++) {
+            DegeneratePattern site = this.enzymes.get(e).getPattern();
+            matchers.add(site);
+            meta.add(new int[]{e, 1});
+            if (!site.isPalindromic()) {
+                matchers.add(site.reverseComplement());
+                meta.add(new int[]{e, -1});
+            }
+            longest = Math.max(longest, site.length());
+        }
+        this.maxLength = longest;
+
+        int numPatterns = matchers.size();
+        patEnzyme = new int[numPatterns];
+        patStrand = new int[numPatterns];
+        patLength = new int[numPatterns];
+        patMatcher = matchers.toArray(new DegeneratePattern[0]);
+        patExpanded = new boolean[numPatterns];
+
+        //Build the trie from the expansions of each pattern
+        Trie trie = new Trie();
+        for (int p = 0; p < numPatterns; p++) {
+            patEnzyme[p] = meta.get(p)[0];
+            patStrand[p] = meta.get(p)[1];
+            patLength[p] = patMatcher[p].length();
+            if (expansions(patMatcher[p]) <= MAX_EXPANSIONS) {
+                patExpanded[p] = true;
+                expand(patMatcher[p], 0, trie.root(), trie, p);
+            }
+        }
+
+        //Breadth-first, fill in fail links and complete the transitions
+        int numStates = trie.size;
+        goTo = Arrays.copyOf(trie.next, numStates * 4);
+        outHead = Arrays.copyOf(trie.outHead, numStates);
+        outNext = Arrays.copyOf(trie.outNext, trie.numOut);
+        outPattern = Arrays.copyOf(trie.outPattern, trie.numOut);
+        dictLink = new int[numStates];
+        int[] fail = new int[numStates];
+        int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+        dictLink[0] = -1;
+        for (int b = 0; b < 4; b++) {
+            int child = goTo[b];
+            if (child < 0) {
+                goTo[b] = 0;
+            } else {
+                fail[child] = 0;
+                dictLink[child] = -1;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int b = 0; b < 4; b++) {
+                int child = goTo[state * 4 + b];
+                int viaFail = goTo[fail[state] * 4 + b];
+                if (child < 0) {
+                    goTo[state * 4 + b] = viaFail;
+                } else {
+                    fail[child] = viaFail;
+                    dictLink[child] = outHead[viaFail] >= 0 ? viaFail : dictLink[viaFail];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    public List<RestrictionEnzyme> getEnzymes() {
+        return new ArrayList<>(enzymes);
+    }
+
+    /**
+     * Scans the double-stranded part of poly, across its origin if it is
+     * circular
+     */
+    public Hits scan(Polynucleotide poly) {
+        PackedSequence packed = poly.getPackedSequence();
+        return scan(packed, poly.isCircular());
+    }
+
+    /**
+     * @param seq the top strand
+     * @param circular whether seq closes on itself
+     * @return every site found, ordered by position
+     */
+    public Hits scan(CharSequence seq, boolean circular) {
+        int n = seq.length();
+        Hits hits = new Hits(circular ? n : -1);
+        if (n == 0 || patEnzyme.length == 0) {
+            return hits;
+        }
+
+        //Codes of the text, plus one site's worth past the origin if circular
+        int extLength = circular ? n + maxLength - 1 : n;
+        byte[] codes = new byte[extLength];
+        readCodes(seq, codes);
+        for (int i = n; i < extLength; i++) {
+            codes[i] = codes[i % n];
+        }
+        CharSequence text = circular ? new Wrapped(seq, extLength) : seq;
+
+        //Expanded patterns: one pass of the automaton
+        int state = 0;
+        for (int i = 0; i < extLength; i++) {
+            int code = codes[i];
+            if (code < 0) {
+                state = 0;
+                continue;
+            }
+            state = goTo[state * 4 + code];
+            for (int s = outHead[state] >= 0 ? state : dictLink[state]; s >= 0; s = dictLink[s]) {
+                for (int o = outHead[s]; o >= 0; o = outNext[o]) {
+                    int p = outPattern[o];
+                    int start = i - patLength[p] + 1;
+                    if (start < n) {
+                        hits.add(start, p, this);
+                    }
+                }
+            }
+        }
+
+        //Windows holding non-ACGT characters, checked from their first one
+        int prevOther = -1;
+        for (int q = 0; q < extLength; q++) {
+            if (codes[q] >= 0) {
+                continue;
+            }
+            for (int p = 0; p < patEnzyme.length; p++) {
+                if (!patExpanded[p]) {
+                    continue;
+                }
+                int from = Math.max(prevOther + 1, q - patLength[p] + 1);
+                int to = Math.min(q, Math.min(n - 1, extLength - patLength[p]));
+                for (int start = Math.max(from, 0); start <= to; start++) {
+                    if (patMatcher[p].matchesAt(text, start)) {
+                        hits.add(start, p, this);
+                    }
+                }
+            }
+            prevOther = q;
+        }
+
+        //Patterns too degenerate to expand
+        for (int p = 0; p < patEnzyme.length; p++) {
+            if (patExpanded[p]) {
+                continue;
+            }
+            int last = Math.min(n - 1, extLength - patLength[p]);
+            for (int start = 0; start <= last; start++) {
+                if (patMatcher[p].matchesAt(text, start)) {
+                    hits.add(start, p, this);
+                }
+            }
+        }
+
+        hits.sort();
+        return hits;
+    }
+
+    private static void readCodes(CharSequence seq, byte[] codes) {
+        int n = seq.length();
+        if (seq instanceof PackedSequence) {
+            PackedSequence packed = (PackedSequence) seq;
+            if (packed.isUnambiguous()) {
+                long[] words = packed.getWords();
+                for (int i = 0; i < n; i++) {
+                    codes[i] = (byte) ((words[i >>> 5] >>> ((i & 31) << 1)) & 3);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    codes[i] = (byte) packed.codeAt(i);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            codes[i] = (byte) PackedSequence.code(seq.charAt(i));
+        }
+    }
+
+    private static long expansions(DegeneratePattern pattern) {
+        long out = 1;
+        for (int i = 0; i < pattern.length() && out <= MAX_EXPANSIONS; i++) {
+            out *= Integer.bitCount(pattern.maskAt(i));
+        }
+        return out;
+    }
+
+    private static void expand(DegeneratePattern pattern, int pos, int state, Trie trie, int p) {
+        if (pos == pattern.length()) {
+            trie.addOutput(state, p);
+            return;
+        }
+        int mask = pattern.maskAt(pos);
+        for (int b = 0; b < 4; b++) {
+            if ((mask & (1 << b)) != 0) {
+                expand(pattern, pos + 1, trie.child(state, b), trie, p);
+            }
+        }
+    }
+
+    /**
+     * Growable trie used while building the automaton.  IupacMask bits are
+     * A, C, G, T from the lowest, the same order as the 2-bit codes.
+     */
+    private static final class Trie {
+
+        int[] next = new int[64 * 4];
+        int[] outHead = new int[64];
+        int[] outNext = new int[16];
+        int[] outPattern = new int[16];
+        int size = 1;
+        int numOut;
+
+        Trie() {
+            Arrays.fill(next, -1);
+            Arrays.fill(outHead, -1);
+        }
+
+        int root() {
+            return 0;
+        }
+
+        int child(int state, int base) {
+            int existing = next[state * 4 + base];
+            if (existing >= 0) {
+                return existing;
+            }
+            if (size == outHead.length) {
+                int old = outHead.length;
+                next = Arrays.copyOf(next, old * 8);
+                Arrays.fill(next, old * 4, old * 8, -1);
+                outHead = Arrays.copyOf(outHead, old * 2);
+                Arrays.fill(outHead, old, old * 2, -1);
+            }
+            next[state * 4 + base] = size;
+            return size++;
+        }
+
+        void addOutput(int state, int pattern) {
+            if (numOut == outNext.length) {
+                outNext = Arrays.copyOf(outNext, numOut * 2);
+                outPattern = Arrays.copyOf(outPattern, numOut * 2);
+            }
+            outPattern[numOut] = pattern;
+            outNext[numOut] = outHead[state];
+            outHead[state] = numOut++;
+        }
+    }
+
+    /**
+     * A circular sequence read past its origin
+     */
+    private static final class Wrapped implements CharSequence {
+
+        private final CharSequence base;
+        private final int length;
+
+        Wrapped(CharSequence base, int length) {
+            this.base = base;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return base.charAt(index % base.length());
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Sites found by a scan, as parallel primitive arrays ordered by
+     * position.  Position is where the site starts on the top strand.
+     * Strand is 1 for a site read on the top strand and -1 for one read on
+     * the bottom; palindromic sites are reported once, on strand 1.  Top and
+     * bottom cuts are the positions of the phosphodiester breaks on each
+     * strand, in top-strand coordinates (a cut at k falls between bases k-1
+     * and k).  For circular molecules cuts are taken modulo the length; on
+     * linear ones a Type IIS cut may fall outside 0..length.
+     */
+    public static final class Hits {
+
+        private final int circularLength;
+        private int size;
+        private int[] positions = new int[16];
+        private int[] enzymes = new int[16];
+        private int[] strands = new int[16];
+        private int[] topCuts = new int[16];
+        private int[] bottomCuts = new int[16];
+
+        Hits(int circularLength) {
+            this.circularLength = circularLength;
+        }
+
+        void add(int start, int pattern, RestrictionScanner scanner) {
+            if (size == positions.length) {
+                int grown = size * 2;
+                positions = Arrays.copyOf(positions, grown);
+                enzymes = Arrays.copyOf(enzymes, grown);
+                strands = Arrays.copyOf(strands, grown);
+                topCuts = Arrays.copyOf(topCuts, grown);
+                bottomCuts = Arrays.copyOf(bottomCuts, grown);
+            }
+            int e = scanner.patEnzyme[pattern];
+            RestrictionEnzyme enz = scanner.enzymes.get(e);
+            int len = scanner.patLength[pattern];
+            int top;
+            int bottom;
+            if (scanner.patStrand[pattern] > 0) {
+                top = start + enz.getCut5();
+                bottom = start + enz.getCut3();
+            } else {
+                top = start + len - enz.getCut3();
+                bottom = start + len - enz.getCut5();
+            }
+            if (circularLength > 0) {
+                top = Math.floorMod(top, circularLength);
+                bottom = Math.floorMod(bottom, circularLength);
+            }
+            positions[size] = start;
+            enzymes[size] = e;
+            strands[size] = scanner.patStrand[pattern];
+            topCuts[size] = top;
+            bottomCuts[size] = bottom;
+            size++;
+        }
+
+        void sort() {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) positions[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[][] columns = {positions, enzymes, strands, topCuts, bottomCuts};
+            for (int c = 0; c < columns.length; c++) {
+                int[] sorted = new int[size];
+                for (int i = 0; i < size; i++) {
+                    sorted[i] = columns[c][(int) keys[i]];
+                }
+                columns[c] = sorted;
+            }
+            positions = columns[0];
+            enzymes = columns[1];
+            strands = columns[2];
+            topCuts = columns[3];
+            bottomCuts = columns[4];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * The arrays below are trimmed to size() and belong to the caller
+         */
+        public int[] getPositions() {
+            return trim(positions);
+        }
+
+        /**
+         * @return indices into the scanner's enzyme list
+         */
+        public int[] getEnzymes() {
+            return trim(enzymes);
+        }
+
+        public int[] getStrands() {
+            return trim(strands);
+        }
+
+        public int[] getTopCuts() {
+            return trim(topCuts);
+        }
+
+        public int[] getBottomCuts() {
+            return trim(bottomCuts);
+        }
+
+        private int[] trim(int[] column) {
+            if (column.length != size) {
+                column = Arrays.copyOf(column, size);
+            }
+            return column;
+        }
+    }
+
+    public static void main(String[] args) {
+        List<RestrictionEnzyme> enzymes = new ArrayList<>();
+        enzymes.add(new RestrictionEnzyme("BamHI", "GGATCC", 1, 5, 0));
+        enzymes.add(new RestrictionEnzyme("BsaI", "GGTCTC", 7, 11, 0));
+        enzymes.add(new RestrictionEnzyme("BglI", "GCCNNNNNGGC", 7, 4, 0));
+        RestrictionScanner scanner = new RestrictionScanner(enzymes);
+
+        //A BamHI site across the origin, BsaI on each strand and a BglI site
+        Polynucleotide plasmid = new Polynucleotide("ATCCaaGGTCTCaaaGCCaaaaaGGCaaGAGACCaaaaGG", true);
+        Hits hits = scanner.scan(plasmid);
+        int[] pos = hits.getPositions();
+        int[] enz = hits.getEnzymes();
+        int[] strand = hits.getStrands();
+        int[] top = hits.getTopCuts();
+        int[] bottom = hits.getBottomCuts();
+        for (int i = 0; i < hits.size(); i++) {
+            System.out.println(enzymes.get(enz[i]).getName() + " at " + pos[i] + " strand " + strand[i]
+                    + " cuts " + top[i] + "/" + bottom[i]);
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package org.ucb.c5.sequtils;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Calculates the reverse complement of a DNA sequence
  *
@@ -22,114 +19,48 @@ public class RevComp {
      * @return the reverse complement of dna
      */
     public String run(String dna) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = dna.length() - 1; i >= 0; i--) {
-            char achar = dna.charAt(i);
-            char base = compbase(achar);
-            sb.append(base);
-        }
+        char[] out = new char[dna.length()];
+        ComplementTable.reverseComplement(dna, out);
+        return new String(out);
+    }
 
-        return sb.toString();
+    /**
+     * Writes the reverse complement of dna into a caller-supplied buffer so
+     * that batch jobs can reuse one buffer across many sequences
+     *
+     * @param dna the DNA sequence that should be reverse complemented
+     * @param dst buffer of at least dna.length() chars
+     * @return the number of chars written to dst
+     */
+    public int run(CharSequence dna, char[] dst) {
+        ComplementTable.reverseComplement(dna, dst);
+        return dna.length();
     }
 
-    private char compbase(char abase) {
+    /**
+     * Byte-oriented variant for ASCII-encoded sequences
+     *
+     * @param dna the DNA sequence that should be reverse complemented
+     * @param dst buffer of at least dna.length bytes, not dna itself
+     * @return the number of bytes written to dst
+     */
+    public int run(byte[] dna, byte[] dst) {
+        SequenceKernels.reverseComplement(dna, 0, dst, 0, dna.length);
+        return dna.length;
+    }
 
-        char compbase = 'z';
-        switch (abase) {
-            case 'G':
-                compbase = 'C';
-                break;
-            case 'C':
-                compbase = 'G';
-                break;
-            case 'A':
-                compbase = 'T';
-                break;
-            case 'T':
-                compbase = 'A';
-                break;
-            case 'a':
-                compbase = 't';
-                break;
-            case 't':
-                compbase = 'a';
-                break;
-            case 'c':
-                compbase = 'g';
-                break;
-            case 'g':
-                compbase = 'c';
-                break;
-            case 'B':
-                compbase = 'V';
-                break;
-            case 'D':
-                compbase = 'H';
-                break;
-            case 'H':
-                compbase = 'D';
-                break;
-            case 'K':
-                compbase = 'M';
-                break;
-            case 'N':
-                compbase = 'N';
-                break;
-            case 'R':
-                compbase = 'Y';
-                break;
-            case 'S':
-                compbase = 'S';
-                break;
-            case 'M':
-                compbase = 'K';
-                break;
-            case 'V':
-                compbase = 'B';
-                break;
-            case 'W':
-                compbase = 'W';
-                break;
-            case 'Y':
-                compbase = 'R';
-                break;
-            case 'b':
-                compbase = 'v';
-                break;
-            case 'd':
-                compbase = 'h';
-                break;
-            case 'h':
-                compbase = 'd';
-                break;
-            case 'k':
-                compbase = 'm';
-                break;
-            case 'n':
-                compbase = 'n';
-                break;
-            case 'r':
-                compbase = 'y';
-                break;
-            case 's':
-                compbase = 's';
-                break;
-            case 'v':
-                compbase = 'b';
-                break;
-            case 'w':
-                compbase = 'w';
-                break;
-            case 'y':
-                compbase = 'r';
-                break;
-            case 'm':
-                compbase = 'k';
-                break;
-            default:
-                throw new IllegalArgumentException("No complementary base for " + abase);
-        }
-        return compbase;
+    /**
+     * Reverse complements dna[offset, offset + length) in place
+     */
+    public void runInPlace(char[] dna, int offset, int length) {
+        ComplementTable.reverseComplementInPlace(dna, offset, length);
+    }
+
+    /**
+     * Reverse complements dna[offset, offset + length) in place
+     */
+    public void runInPlace(byte[] dna, int offset, int length) {
+        SequenceKernels.reverseComplementInPlace(dna, offset, length);
     }
 
     public static void main(String[] args) {
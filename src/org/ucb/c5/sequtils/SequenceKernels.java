@@ -0,0 +1,220 @@
+package org.ucb.c5.sequtils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Word-parallel kernels for complement, reverse complement and A/C/G/T
+ * counting over ASCII byte[] sequences.
+ *
+ * Eight bases are processed per 64-bit word (SIMD within a register).  A word
+ * consisting only of A, C, G, T (either case) is complemented with two XORs,
+ * and base counts are taken with a zero-byte test and a popcount.  Words
+ * holding anything else, and the tail of every array, go through the scalar
+ * ComplementTable path, so results and exceptions are identical to the
+ * scalar code.  Setting the system property org.ucb.c5.sequtils.scalar=true,
+ * or running on a VM where the byte[] view cannot be created, disables the
+ * word path entirely.
+ */
+public final class SequenceKernels {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long CASE = 0x2020202020202020L;
+
+    private static final long LOWER_A = ONES * 'a';
+    private static final long LOWER_C = ONES * 'c';
+    private static final long LOWER_G = ONES * 'g';
+    private static final long LOWER_T = ONES * 't';
+
+    private static final VarHandle LONGS;
+    private static final boolean ACCELERATED;
+
+    static {
+        VarHandle handle = null;
+        boolean enabled = !Boolean.getBoolean("org.ucb.c5.sequtils.scalar");
+        if (enabled) {
+            try {
+                handle = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+            } catch (Throwable err) {
+                enabled = false;
+            }
+        }
+        LONGS = handle;
+        ACCELERATED = enabled;
+    }
+
+    private SequenceKernels() {
+    }
+
+    /**
+     * @return true if the word-parallel path is in use
+     */
+    public static boolean isAccelerated() {
+        return ACCELERATED;
+    }
+
+    /**
+     * Writes the complement of src[srcOff, srcOff + len) into
+     * dst[dstOff, dstOff + len).  src and dst may be the same array at the
+     * same offset.
+     */
+    public static void complement(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        int i = 0;
+        if (ACCELERATED) {
+            for (; i + 8 <= len; i += 8) {
+                long word = (long) LONGS.get(src, srcOff + i);
+                if (isACGT(word)) {
+                    LONGS.set(dst, dstOff + i, complementWord(word));
+                } else {
+                    for (int k = i; k < i + 8; k++) {
+                        dst[dstOff + k] = ComplementTable.complement(src[srcOff + k]);
+                    }
+                }
+            }
+        }
+        for (; i < len; i++) {
+            dst[dstOff + i] = ComplementTable.complement(src[srcOff + i]);
+        }
+    }
+
+    /**
+     * Writes the reverse complement of src[srcOff, srcOff + len) into
+     * dst[dstOff, dstOff + len).  src and dst must not overlap.
+     */
+    public static void reverseComplement(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        int i = 0;
+        if (ACCELERATED) {
+            for (; i + 8 <= len; i += 8) {
+                long word = (long) LONGS.get(src, srcOff + i);
+                int out = dstOff + len - i - 8;
+                if (isACGT(word)) {
+                    LONGS.set(dst, out, Long.reverseBytes(complementWord(word)));
+                } else {
+                    for (int k = 0; k < 8; k++) {
+                        dst[out + 7 - k] = ComplementTable.complement(src[srcOff + i + k]);
+                    }
+                }
+            }
+        }
+        for (; i < len; i++) {
+            dst[dstOff + len - 1 - i] = ComplementTable.complement(src[srcOff + i]);
+        }
+    }
+
+    /**
+     * Reverse complements buf[off, off + len) in place
+     */
+    public static void reverseComplementInPlace(byte[] buf, int off, int len) {
+        int lo = off;
+        int hi = off + len;
+        if (ACCELERATED) {
+            while (hi - lo >= 16) {
+                long left = (long) LONGS.get(buf, lo);
+                long right = (long) LONGS.get(buf, hi - 8);
+                if (!isACGT(left) || !isACGT(right)) {
+                    break;
+                }
+                LONGS.set(buf, lo, Long.reverseBytes(complementWord(right)));
+                LONGS.set(buf, hi - 8, Long.reverseBytes(complementWord(left)));
+                lo += 8;
+                hi -= 8;
+            }
+        }
+        ComplementTable.reverseComplementInPlace(buf, lo, hi - lo);
+    }
+
+    /**
+     * Tallies A, C, G and T (either case) in seq[from, to).  Other
+     * characters are ignored.
+     *
+     * @param counts receives the A, C, G and T totals at indices 0 to 3; it
+     * is added to, not cleared
+     */
+    public static void countBases(byte[] seq, int from, int to, long[] counts) {
+        long a = 0;
+        long c = 0;
+        long g = 0;
+        long t = 0;
+        int i = from;
+        if (ACCELERATED) {
+            for (; i + 8 <= to; i += 8) {
+                long lower = (long) LONGS.get(seq, i) | CASE;
+                a += Long.bitCount(zeroBytes(lower ^ LOWER_A));
+                c += Long.bitCount(zeroBytes(lower ^ LOWER_C));
+                g += Long.bitCount(zeroBytes(lower ^ LOWER_G));
+                t += Long.bitCount(zeroBytes(lower ^ LOWER_T));
+            }
+        }
+        for (; i < to; i++) {
+            switch (seq[i]) {
+                case 'A':
+                case 'a':
+                    a++;
+                    break;
+                case 'C':
+                case 'c':
+                    c++;
+                    break;
+                case 'G':
+                case 'g':
+                    g++;
+                    break;
+                case 'T':
+                case 't':
+                    t++;
+                    break;
+            }
+        }
+        counts[0] += a;
+        counts[1] += c;
+        counts[2] += g;
+        counts[3] += t;
+    }
+
+    /**
+     * Marks with 0x80 every byte of x that is zero, and nothing else.  Unlike
+     * the usual (x - 0x01..) & ~x trick this has no false positives from
+     * borrows, so the popcount is exact.
+     */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
+    }
+
+    /**
+     * True if all eight bytes are one of AaCcGgTt.  Or-ing in 0x20 folds
+     * upper case onto lower case; no other byte folds onto a, c, g or t.
+     */
+    private static boolean isACGT(long word) {
+        long lower = word | CASE;
+        long hits = zeroBytes(lower ^ LOWER_A) | zeroBytes(lower ^ LOWER_C)
+                | zeroBytes(lower ^ LOWER_G) | zeroBytes(lower ^ LOWER_T);
+        return hits == HIGHS;
+    }
+
+    /**
+     * A (0x41) and T (0x54) differ by 0x15, C (0x43) and G (0x47) by 0x04, and
+     * only C and G have bit 1 set, in both cases.  Bit 5 (case) is untouched.
+     */
+    private static long complementWord(long word) {
+        long cg = (word >>> 1) & ONES;
+        return word ^ (ONES * 0x15) ^ (cg * 0x11);
+    }
+
+    public static void main(String[] args) {
+        //Check that the word path matches the scalar table on a mixed sequence
+        String dna = "ATGCATCCCAAATAANRWATCCCAAATAANRWatgcatcccaaataaACGTACGTacgtacgtGGGCCCTTTAAA";
+        byte[] seq = dna.getBytes();
+        byte[] rc = new byte[seq.length];
+        reverseComplement(seq, 0, rc, 0, seq.length);
+        System.out.println("accelerated: " + isAccelerated());
+        System.out.println(new String(rc));
+        System.out.println(new RevComp().run(dna));
+
+        long[] counts = new long[4];
+        countBases(seq, 0, seq.length, counts);
+        System.out.println("A=" + counts[0] + " C=" + counts[1] + " G=" + counts[2] + " T=" + counts[3]);
+    }
+}
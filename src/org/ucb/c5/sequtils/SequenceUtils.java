@@ -7,49 +7,85 @@ package org.ucb.c5.sequtils;
  */
 public class SequenceUtils {
 
+    /**
+     * Complements a DNA sequence base-by-base, preserving case and without
+     * reversing it
+     *
+     * @param rbsrc the sequence to complement, any IUPAC characters
+     * @return the complement of rbsrc
+     */
     public static String complement(String rbsrc) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < rbsrc.length(); i++) {
-            char achar = rbsrc.charAt(i);
-            if (achar == 'A') {
-                sb.append("T");
-            } else if (achar == 'T') {
-                sb.append("A");
-            } else if (achar == 'C') {
-                sb.append("G");
-            } else if (achar == 'G') {
-                sb.append("C");
-            } else if (achar == 'a') {
-                sb.append("t");
-            } else if (achar == 't') {
-                sb.append("a");
-            } else if (achar == 'c') {
-                sb.append("g");
-            } else if (achar == 'g') {
-                sb.append("c");
-            }
-        }
-        return sb.toString();
+        char[] out = new char[rbsrc.length()];
+        ComplementTable.complement(rbsrc, out);
+        return new String(out);
     }
 
     public static double calcGC(String inseq) {
-        String seq = inseq.toUpperCase();
-        //Tally up the A's and G's
+        //Tally up the C's and G's without upper-casing a copy
         int cs = 0;
         int gs = 0;
 
-        for (int i = 0; i < seq.length(); i++) {
-            char achar = seq.charAt(i);
-            if (achar == 'C') {
+        for (int i = 0; i < inseq.length(); i++) {
+            char achar = inseq.charAt(i);
+            if (achar == 'C' || achar == 'c') {
                 cs++;
-            } else if (achar == 'G') {
+            } else if (achar == 'G' || achar == 'g') {
                 gs++;
             }
         }
         
-        double length = 1.0*seq.length();
+        double length = 1.0*inseq.length();
         double out = (gs + cs)/length;
         return out;
     }
 
+    /**
+     * GC fraction of an ASCII-encoded sequence, counted eight bases at a time
+     * by SequenceKernels
+     */
+    public static double calcGC(byte[] inseq) {
+        long[] counts = new long[4];
+        SequenceKernels.countBases(inseq, 0, inseq.length, counts);
+        return (counts[1] + counts[2]) / (1.0 * inseq.length);
+    }
+
+    /**
+     * GC fraction computed from the 2-bit codes of a packed sequence
+     */
+    public static double calcGC(PackedSequence inseq) {
+        long[] counts = new long[4];
+        inseq.countBases(counts);
+        return (counts[1] + counts[2]) / (1.0 * inseq.length());
+    }
+
+    /**
+     * Melting temperature by the basic formulas: the Wallace rule below 14
+     * bases and the GC-content formula from 14 up
+     *
+     * @param inseq DNA, any case
+     * @return the Tm in degrees C
+     */
+    public static double calcTm(String inseq) {
+        int gc = 0;
+        int at = 0;
+        for (int i = 0; i < inseq.length(); i++) {
+            switch (Character.toUpperCase(inseq.charAt(i))) {
+                case 'G':
+                case 'C':
+                    gc++;
+                    break;
+                case 'A':
+                case 'T':
+                case 'U':
+                    at++;
+                    break;
+            }
+        }
+        int length = inseq.length();
+        if (length < 14) {
+            return 4 * gc + 2 * at;
+        }
+        return 64.9 + 41.0 * (gc - 16.4) / length;
+    }
+
 }
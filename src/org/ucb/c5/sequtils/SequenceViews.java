@@ -0,0 +1,219 @@
+package org.ucb.c5.sequtils;
+
+/**
+ * Zero-copy CharSequence views over a DNA sequence.
+ *
+ * The complement and reverse-complement views translate each index and
+ * complement the base on access, so reading the bottom strand never builds a
+ * reversed copy.  The circular view treats its backing sequence as a ring so
+ * that windows may run across the origin.  subSequence on any view returns
+ * another view; only toString() copies.
+ *
+ * Views hold on to the backing sequence, so they reflect it as long as it
+ * does not change.
+ */
+public final class SequenceViews {
+
+    private SequenceViews() {
+    }
+
+    /**
+     * @return the complement of seq, read in the same direction as seq
+     */
+    public static CharSequence complement(CharSequence seq) {
+        return new ComplementView(seq, 0, seq.length());
+    }
+
+    /**
+     * @return the reverse complement of seq, ie the other strand read 5' to 3'
+     */
+    public static CharSequence reverseComplement(CharSequence seq) {
+        return new RevCompView(seq, 0, seq.length());
+    }
+
+    /**
+     * @return a view of seq as a circular molecule starting at its origin
+     */
+    public static CircularView circular(CharSequence seq) {
+        return new CircularView(seq, 0, seq.length());
+    }
+
+    /**
+     * @return a view of seq as a circular molecule rotated to start at origin
+     */
+    public static CircularView circular(CharSequence seq, int origin) {
+        return new CircularView(seq, Math.floorMod(origin, Math.max(seq.length(), 1)), seq.length());
+    }
+
+    private static void checkRange(int start, int end, int length) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+    }
+
+    private static String copy(CharSequence view) {
+        StringBuilder sb = new StringBuilder(view.length());
+        for (int i = 0; i < view.length(); i++) {
+            sb.append(view.charAt(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Complement of base[offset, offset + length)
+     */
+    private static final class ComplementView implements CharSequence {
+
+        private final CharSequence base;
+        private final int offset;
+        private final int length;
+
+        ComplementView(CharSequence base, int offset, int length) {
+            this.base = base;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            return ComplementTable.complement(base.charAt(offset + index));
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            checkRange(start, end, length);
+            return new ComplementView(base, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return copy(this);
+        }
+    }
+
+    /**
+     * Reverse complement of base[offset, offset + length)
+     */
+    private static final class RevCompView implements CharSequence {
+
+        private final CharSequence base;
+        private final int offset;
+        private final int length;
+
+        RevCompView(CharSequence base, int offset, int length) {
+            this.base = base;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            return ComplementTable.complement(base.charAt(offset + length - 1 - index));
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            checkRange(start, end, length);
+            //Index i of this view reads base[offset + length - 1 - i]
+            return new RevCompView(base, offset + length - end, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return copy(this);
+        }
+    }
+
+    /**
+     * A window of up to one full turn of a circular sequence.  Index 0 is at
+     * base[origin] and indices run past the end of base back to its start.
+     */
+    public static final class CircularView implements CharSequence {
+
+        private final CharSequence base;
+        private final int origin;
+        private final int length;
+
+        CircularView(CharSequence base, int origin, int length) {
+            this.base = base;
+            this.origin = origin;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            int pos = origin + index;
+            int size = base.length();
+            return base.charAt(pos >= size ? pos - size : pos);
+        }
+
+        @Override
+        public CircularView subSequence(int start, int end) {
+            checkRange(start, end, length);
+            return new CircularView(base, (origin + start) % Math.max(base.length(), 1), end - start);
+        }
+
+        /**
+         * Like subSequence, but an end at or before start runs across the
+         * origin, so wrap(n - 3, 4) on a full turn of length n covers the last
+         * three bases and the first four.
+         *
+         * @param start inclusive start index, 0 to length()
+         * @param end exclusive end index, 0 to length()
+         * @return a view of the window
+         */
+        public CircularView wrap(int start, int end) {
+            if (end > start) {
+                return subSequence(start, end);
+            }
+            if (length != base.length()) {
+                throw new IllegalStateException("Only a full turn of a circular sequence can wrap across its origin");
+            }
+            checkRange(0, start, length);
+            checkRange(0, end, length);
+            return new CircularView(base, (origin + start) % Math.max(base.length(), 1), length - start + end);
+        }
+
+        @Override
+        public String toString() {
+            return copy(this);
+        }
+    }
+
+    public static void main(String[] args) {
+        String seq = "GGATCCaaaTTTgggGAATTC";
+        System.out.println(seq);
+        System.out.println(complement(seq));
+        System.out.println(reverseComplement(seq));
+        System.out.println(reverseComplement(seq).subSequence(0, 6));
+        System.out.println(new RevComp().run(seq).substring(0, 6));
+
+        //A BamHI site split across the origin of a circular molecule
+        CircularView plasmid = circular("ATCCaaaaaaaaGG");
+        System.out.println(plasmid.wrap(12, 4));
+    }
+}
@@ -0,0 +1,81 @@
+package org.ucb.c5.simulation;
+
+import java.util.Map;
+import org.ucb.c5.constructionfile.model.Blunting;
+import org.ucb.c5.constructionfile.model.BluntingType;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+
+/**
+ * Simulates blunting the ends of a duplex.
+ *
+ * A polymerase (T4 DNA polymerase or Klenow) fills in 5' overhangs, which
+ * adds their letters to the duplex, and chews back 3' overhangs.  An
+ * exonuclease (mung bean nuclease) removes single-stranded overhangs of
+ * either polarity.  Either way both ends come out blunt and keep their
+ * modifications.  A circular molecule has no ends and is returned as is.
+ */
+public class SimulateBlunting {
+
+    public void initiate() throws Exception {
+    }
+
+    /**
+     * @param blunting the step
+     * @param sequences the construction file's sequences, by name
+     * @return the product
+     */
+    public Polynucleotide run(Blunting blunting, Map<String, Polynucleotide> sequences) throws Exception {
+        Polynucleotide substrate = sequences.get(blunting.getSubstrate());
+        if (substrate == null) {
+            throw new Exception("No sequence provided for " + blunting.getSubstrate());
+        }
+        return run(substrate, parseType(blunting.getTypes()));
+    }
+
+    /**
+     * @return substrate with both ends made blunt by type
+     */
+    public Polynucleotide run(Polynucleotide substrate, BluntingType type) throws Exception {
+        if (!substrate.isIsDoubleStranded()) {
+            throw new Exception("Only a duplex can be blunted");
+        }
+        if (substrate.isCircular()) {
+            return substrate;
+        }
+        String ext5 = substrate.getExt5();
+        String ext3 = substrate.getExt3();
+        StringBuilder sb = new StringBuilder();
+        if (type == BluntingType.Polymerase && !ext5.isEmpty() && !ext5.startsWith("-")) {
+            sb.append(ext5);
+        }
+        sb.append(substrate.getSequence());
+        if (type == BluntingType.Polymerase && !ext3.isEmpty() && !ext3.startsWith("-")) {
+            sb.append(ext3);
+        }
+        return new Polynucleotide(sb.toString(), "", "", true, substrate.isIsRNA(), false,
+                substrate.getMod5(), substrate.getMod3());
+    }
+
+    /**
+     * @return the BluntingType named, in any case
+     */
+    public static BluntingType parseType(String types) throws Exception {
+        for (BluntingType type : BluntingType.values()) {
+            if (type.name().equalsIgnoreCase(types.trim())) {
+                return type;
+            }
+        }
+        throw new Exception("No blunting type matches query " + types);
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulateBlunting blunting = new SimulateBlunting();
+        blunting.initiate();
+
+        //EcoRI 5' overhang on the left, PstI 3' overhang on the right
+        Polynucleotide frag = new Polynucleotide("CatgaaagcttaC", "AATT", "-TGCA");
+        System.out.println(frag);
+        System.out.println(blunting.run(frag, BluntingType.Polymerase));
+        System.out.println(blunting.run(frag, BluntingType.Exonuclease));
+    }
+}
@@ -0,0 +1,349 @@
+package org.ucb.c5.simulation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import org.ucb.c5.constructionfile.EnzymeRegistry;
+import org.ucb.c5.constructionfile.model.Antibiotic;
+import org.ucb.c5.constructionfile.model.Assembly;
+import org.ucb.c5.constructionfile.model.Blunting;
+import org.ucb.c5.constructionfile.model.ConstructionFile;
+import org.ucb.c5.constructionfile.model.Digestion;
+import org.ucb.c5.constructionfile.model.Ligation;
+import org.ucb.c5.constructionfile.model.Modifications;
+import org.ucb.c5.constructionfile.model.PCR;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.constructionfile.model.RestrictionEnzyme;
+import org.ucb.c5.constructionfile.model.Step;
+import org.ucb.c5.constructionfile.model.Transformation;
+import org.ucb.c5.sequtils.CanonicalForm;
+import org.ucb.c5.sequtils.RevComp;
+
+/**
+ * Simulates construction files as dependency graphs.
+ *
+ * The steps of each file are ordered by what they consume and produce, so a
+ * step may be listed before the steps making its inputs.  An input that is
+ * neither a provided sequence nor any step's product, a product made twice,
+ * and a cycle are all errors.  Each step then becomes a node whose inputs
+ * are the nodes making them, and runs on the fork-join pool as soon as they
+ * are done, so independent branches such as the two PCRs of an assembly run
+ * at once.
+ *
+ * Nodes are shared by signature rather than by name: a provided sequence is
+ * identified by its exact content and a step by its operation, parameters
+ * and the signatures of its inputs.  Simulating many files together thus
+ * makes each distinct upstream product once, however many files use it and
+ * whatever they call it.  A SimulationCache, the shared one by default,
+ * carries products across runs.  Transformation passes its DNA through.
+ */
+public class SimulateConstructionFile {
+
+    private ForkJoinPool pool;
+    private SimulationCache cache;
+    private SimulatePCR simulatePCR;
+    private SimulateDigestion simulateDigestion;
+    private SimulateLigation simulateLigation;
+    private SimulateGoldenGate simulateGoldenGate;
+    private SimulateGibson simulateGibson;
+    private SimulateBlunting simulateBlunting;
+
+    public void initiate() throws Exception {
+        initiate(ForkJoinPool.commonPool(), SimulationCache.getShared());
+    }
+
+    /**
+     * @param pool runs the steps
+     * @param cache is consulted before simulating each step, or null for none
+     */
+    public void initiate(ForkJoinPool pool, SimulationCache cache) throws Exception {
+        this.pool = pool;
+        this.cache = cache;
+        simulatePCR = new SimulatePCR();
+        simulatePCR.initiate();
+        simulateDigestion = new SimulateDigestion();
+        simulateDigestion.initiate();
+        simulateLigation = new SimulateLigation();
+        simulateLigation.initiate();
+        simulateGoldenGate = new SimulateGoldenGate();
+        simulateGoldenGate.initiate();
+        simulateGibson = new SimulateGibson();
+        simulateGibson.initiate();
+        simulateBlunting = new SimulateBlunting();
+        simulateBlunting.initiate();
+    }
+
+    /**
+     * @return every sequence of cf, provided or made, by name
+     */
+    public Map<String, Polynucleotide> run(ConstructionFile cf) throws Exception {
+        return run(Collections.singletonList(cf)).get(0);
+    }
+
+    /**
+     * Simulates cfs as one merged graph
+     *
+     * @return for each file in order, its sequences by name
+     */
+    public List<Map<String, Polynucleotide>> run(List<ConstructionFile> cfs) throws Exception {
+        //Build every file's graph into one, merging nodes by signature
+        Map<Long, Node> bySignature = new HashMap<>();
+        List<Map<String, Node>> byName = new ArrayList<>();
+        for (ConstructionFile cf : cfs) {
+            Map<String, Node> names = new LinkedHashMap<>();
+            if (cf.getSequences() != null) {
+                for (Map.Entry<String, Polynucleotide> entry : cf.getSequences().entrySet()) {
+                    names.put(entry.getKey(), leaf(entry.getValue(), bySignature));
+                }
+            }
+            for (Step step : sort(cf, names.keySet())) {
+                List<Node> inputs = new ArrayList<>();
+                for (String input : step.getInputs()) {
+                    inputs.add(names.get(input));
+                }
+                names.put(step.getProduct(), node(step, inputs, bySignature));
+            }
+            byName.add(names);
+        }
+
+        //Wait on each file's products
+        List<Map<String, Polynucleotide>> out = new ArrayList<>();
+        for (Map<String, Node> names : byName) {
+            Map<String, Polynucleotide> products = new LinkedHashMap<>();
+            for (Map.Entry<String, Node> entry : names.entrySet()) {
+                products.put(entry.getKey(), await(entry.getValue()));
+            }
+            out.add(products);
+        }
+        return out;
+    }
+
+    /**
+     * Orders the steps of cf so that each follows the steps making its
+     * inputs, by Kahn's algorithm
+     *
+     * @param provided the names of the sequences cf provides
+     * @throws Exception if an input is undefined, a product is made twice, or
+     * the steps form a cycle
+     */
+    public static List<Step> sort(ConstructionFile cf, Set<String> provided) throws Exception {
+        List<Step> steps = cf.getSteps();
+        Map<String, Integer> producer = new HashMap<>();
+        for (int i = 0; i < steps.size(); i++) {
+            String product = steps.get(i).getProduct();
+            if (producer.put(product, i) != null || provided.contains(product)) {
+                throw new Exception("Product " + product + " is defined more than once");
+            }
+        }
+
+        int[] waiting = new int[steps.size()];
+        List<List<Integer>> consumers = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            consumers.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            for (String input : steps.get(i).getInputs()) {
+                Integer from = producer.get(input);
+                if (from != null) {
+                    consumers.get(from).add(i);
+                    waiting[i]++;
+                } else if (!provided.contains(input)) {
+                    throw new Exception("Step " + steps.get(i).getOperation() + " making " + steps.get(i).getProduct()
+                            + " uses undefined input " + input);
+                }
+            }
+        }
+
+        //Steps in file order as they become ready
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < steps.size(); i++) {
+            if (waiting[i] == 0) {
+                ready.add(i);
+            }
+        }
+        List<Step> out = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            out.add(steps.get(i));
+            for (int next : consumers.get(i)) {
+                if (--waiting[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (out.size() < steps.size()) {
+            List<String> stuck = new ArrayList<>();
+            for (int i = 0; i < steps.size(); i++) {
+                if (waiting[i] > 0) {
+                    stuck.add(steps.get(i).getProduct());
+                }
+            }
+            throw new Exception("Steps making " + stuck + " depend on each other in a cycle");
+        }
+        return out;
+    }
+
+    /**
+     * A product: its signature, and the future simulating it
+     */
+    private static final class Node {
+
+        final long signature;
+        final String label;
+        final CompletableFuture<Polynucleotide> future;
+
+        Node(long signature, String label, CompletableFuture<Polynucleotide> future) {
+            this.signature = signature;
+            this.label = label;
+            this.future = future;
+        }
+    }
+
+    private static Node leaf(Polynucleotide poly, Map<Long, Node> bySignature) {
+        long signature = poly.getExactHash();
+        Node node = bySignature.get(signature);
+        if (node == null) {
+            node = new Node(signature, "sequence", CompletableFuture.completedFuture(poly));
+            bySignature.put(signature, node);
+        }
+        return node;
+    }
+
+    private Node node(final Step step, final List<Node> inputs, Map<Long, Node> bySignature) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(step.getOperation()).append('(').append(SimulationCache.parameters(step)).append(')');
+        for (Node input : inputs) {
+            sb.append(':').append(Long.toHexString(input.signature));
+        }
+        long signature = CanonicalForm.hash64(sb);
+        Node node = bySignature.get(signature);
+        if (node != null) {
+            return node;
+        }
+
+        CompletableFuture<?>[] upstream = new CompletableFuture<?>[inputs.size()];
+        for (int i = 0; i < upstream.length; i++) {
+            upstream[i] = inputs.get(i).future;
+        }
+        CompletableFuture<Polynucleotide> future = CompletableFuture.allOf(upstream).thenApplyAsync(new Function<Void, Polynucleotide>() {
+            @Override
+            public Polynucleotide apply(Void ignored) {
+                Map<String, Polynucleotide> sequences = new HashMap<>();
+                List<Polynucleotide> values = new ArrayList<>();
+                List<String> names = step.getInputs();
+                for (int i = 0; i < names.size(); i++) {
+                    Polynucleotide value = inputs.get(i).future.join();
+                    sequences.put(names.get(i), value);
+                    values.add(value);
+                }
+                long key = SimulationCache.key(step, values);
+                Polynucleotide out = cache == null ? null : cache.get(key);
+                if (out != null) {
+                    return out;
+                }
+                try {
+                    out = simulate(step, sequences);
+                } catch (Exception err) {
+                    throw new CompletionException(err);
+                }
+                if (cache != null) {
+                    cache.put(key, out);
+                }
+                return out;
+            }
+        }, pool);
+        node = new Node(signature, step.getOperation() + " making " + step.getProduct(), future);
+        bySignature.put(signature, node);
+        return node;
+    }
+
+    /**
+     * @return the simulated product of step given its inputs by name
+     */
+    private Polynucleotide simulate(Step step, Map<String, Polynucleotide> sequences) throws Exception {
+        switch (step.getOperation()) {
+            case pcr:
+                return simulatePCR.run((PCR) step, sequences);
+            case digest:
+                Digestion digest = (Digestion) step;
+                return simulateDigestion.run(sequences.get(digest.getSubstrate()), digest);
+            case ligate:
+                return simulateLigation.run((Ligation) step, sequences);
+            case assemble:
+                Assembly assembly = (Assembly) step;
+                RestrictionEnzyme enz = EnzymeRegistry.getDefault().get(assembly.getEnzyme());
+                if (enz != null && enz.cutsOutsideSite()) {
+                    return simulateGoldenGate.run(assembly, sequences);
+                }
+                return simulateGibson.run(assembly, sequences);
+            case blunting:
+                return simulateBlunting.run((Blunting) step, sequences);
+            case transform:
+                return sequences.get(((Transformation) step).getDna());
+            default:
+                throw new Exception("Not implemented " + step.getOperation());
+        }
+    }
+
+    private static Polynucleotide await(Node node) throws Exception {
+        try {
+            return node.future.get();
+        } catch (ExecutionException err) {
+            Throwable cause = err.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw new Exception("Simulating " + node.label + " failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulateConstructionFile sim = new SimulateConstructionFile();
+        sim.initiate();
+
+        //Two PCRs feeding one Gibson assembly, listed out of order
+        String plasmid = "ttgacagctagctcagtcctaggtataatactagtcatcgccgcagcggtttcaggttttagagctagaaatagcaagttaaaataaggctagtccgttatcaacttgaaaaagtggcaccgagtcggtgctttttttgaattcgcatgcatgcatgcatccagttatcgcgcgcgattacgagc";
+        String rc = new RevComp().run(plasmid);
+        Map<String, Polynucleotide> seqs = new HashMap<>();
+        seqs.put("template", new Polynucleotide(plasmid, true));
+        seqs.put("f1", oligo(plasmid.substring(0, 22)));
+        seqs.put("r1", oligo(rc.substring(rc.length() - 110, rc.length() - 88)));
+        seqs.put("f2", oligo(plasmid.substring(85, 107)));
+        seqs.put("r2", oligo(rc.substring(rc.length() - 25) + rc.substring(0, 22)));
+
+        List<Step> steps = new ArrayList<>();
+        steps.add(new Transformation("gib", "DH10B", Antibiotic.Amp, "pOut"));
+        steps.add(new Assembly(Arrays.asList("p1", "p2"), "Gibson", "gib"));
+        steps.add(new PCR("f1", "r1", Collections.singletonList("template"), "p1"));
+        steps.add(new PCR("f2", "r2", Collections.singletonList("template"), "p2"));
+        ConstructionFile cf = new ConstructionFile(steps, "pOut", seqs);
+
+        Map<String, Polynucleotide> out = sim.run(cf);
+        for (String name : new String[]{"p1", "p2", "gib"}) {
+            System.out.println(name + ": " + out.get(name).getSequence().length() + " bp");
+        }
+        System.out.println("gib equals the template: " + out.get("gib").equals(seqs.get("template")));
+
+        //A second run is served from the cache
+        sim.run(cf);
+        SimulationCache cache = SimulationCache.getShared();
+        System.out.println(cache.getHits() + " cache hits, " + cache.getMisses() + " misses");
+    }
+
+    private static Polynucleotide oligo(String seq) {
+        return new Polynucleotide(seq, "", "", false, false, false,
+                Modifications.hydroxyl, Modifications.hydroxyl);
+    }
+}
@@ -0,0 +1,222 @@
+package org.ucb.c5.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.ucb.c5.constructionfile.EnzymeRegistry;
+import org.ucb.c5.constructionfile.model.Digestion;
+import org.ucb.c5.constructionfile.model.Modifications;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.constructionfile.model.RestrictionEnzyme;
+import org.ucb.c5.sequtils.RestrictionScanner;
+
+/**
+ * Simulates a restriction digest.
+ *
+ * All sites of all the enzymes are found in one RestrictionScanner pass and
+ * the molecule is cut between them.  Fragments come back in order along the
+ * top strand; for a circular substrate the first fragment starts at the
+ * first cut.  Cut ends get phos5 and the overhang left by the enzyme, as a
+ * 5' overhang ("AATT") or a 3' overhang ("-TGCA"); the original ends of a
+ * linear substrate are kept.  fragSelect picks one fragment, counting from
+ * 0.
+ *
+ * DpnI only cuts methylated DNA, and the substrates here come out of PCR, so
+ * it is treated as not cutting.  A cut that falls outside the duplex, or
+ * overlaps the previous cut, is ignored.
+ */
+public class SimulateDigestion {
+
+    private static final List<String> METHYLATION_DEPENDENT = Arrays.asList("dpni");
+
+    private EnzymeRegistry registry;
+
+    //Scanners are reused for each set of enzymes seen
+    private final Map<List<String>, RestrictionScanner> scanners = new ConcurrentHashMap<>();
+
+    public void initiate() throws Exception {
+        registry = EnzymeRegistry.getDefault();
+    }
+
+    /**
+     * @return the fragment of substrate that digest selects
+     */
+    public Polynucleotide run(Polynucleotide substrate, Digestion digest) throws Exception {
+        return run(substrate, digest.getEnzymes(), digest.getFragSelection());
+    }
+
+    /**
+     * @return fragment fragSelect of substrate cut with enzymes
+     */
+    public Polynucleotide run(Polynucleotide substrate, List<String> enzymes, int fragSelect) throws Exception {
+        List<Polynucleotide> frags = run(substrate, enzymes);
+        if (fragSelect < 0 || fragSelect >= frags.size()) {
+            throw new Exception("Fragment " + fragSelect + " requested but the digest with " + enzymes + " gives " + frags.size());
+        }
+        return frags.get(fragSelect);
+    }
+
+    /**
+     * @return every fragment of substrate cut with enzymes, in order
+     */
+    public List<Polynucleotide> run(Polynucleotide substrate, List<String> enzymes) throws Exception {
+        RestrictionScanner scanner = scannerFor(enzymes);
+        String seq = substrate.getSequence();
+        int n = seq.length();
+        boolean circular = substrate.isCircular();
+
+        //Collect usable cuts as (top, bottom) pairs, ordered along the molecule
+        RestrictionScanner.Hits hits = scanner.scan(substrate);
+        int[] tops = hits.getTopCuts();
+        int[] bottoms = hits.getBottomCuts();
+        long[] order = new long[hits.size()];
+        int numCuts = 0;
+        for (int i = 0; i < hits.size(); i++) {
+            //Circular cuts come modulo n; keep a staggered cut across the origin together
+            if (circular && Math.abs(tops[i] - bottoms[i]) > n / 2) {
+                if (tops[i] < bottoms[i]) {
+                    tops[i] += n;
+                } else {
+                    bottoms[i] += n;
+                }
+            }
+            int left = Math.min(tops[i], bottoms[i]);
+            int right = Math.max(tops[i], bottoms[i]);
+            if (!circular && (left <= 0 || right >= n)) {
+                continue;
+            }
+            order[numCuts++] = ((long) left << 32) | i;
+        }
+        Arrays.sort(order, 0, numCuts);
+
+        int[] cutTop = new int[numCuts];
+        int[] cutBottom = new int[numCuts];
+        int kept = 0;
+        for (int k = 0; k < numCuts; k++) {
+            int i = (int) order[k];
+            int left = Math.min(tops[i], bottoms[i]);
+            if (kept > 0 && left < Math.max(cutTop[kept - 1], cutBottom[kept - 1])) {
+                continue;
+            }
+            cutTop[kept] = tops[i];
+            cutBottom[kept] = bottoms[i];
+            kept++;
+        }
+        //On a ring the last cut may also overlap the first
+        if (circular && kept > 1 && Math.max(cutTop[kept - 1], cutBottom[kept - 1]) > n + Math.min(cutTop[0], cutBottom[0])) {
+            kept--;
+        }
+
+        List<Polynucleotide> out = new ArrayList<>();
+        if (kept == 0) {
+            out.add(substrate);
+            return out;
+        }
+
+        if (!circular) {
+            //First fragment keeps the substrate's left end
+            out.add(fragment(seq, n, 0, 0, cutTop[0], cutBottom[0], substrate.getExt5(), substrate.getMod5(), substrate));
+            for (int k = 1; k < kept; k++) {
+                out.add(fragment(seq, n, cutTop[k - 1], cutBottom[k - 1], cutTop[k], cutBottom[k], null, null, substrate));
+            }
+            Polynucleotide last = fragment(seq, n, cutTop[kept - 1], cutBottom[kept - 1], n, n, null, null, substrate);
+            out.add(new Polynucleotide(last.getSequence(), last.getExt5(), substrate.getExt3(),
+                    true, substrate.isIsRNA(), false, last.getMod5(), substrate.getMod3()));
+            return out;
+        }
+
+        //Circular: from each cut to the next, the last one running across the origin
+        for (int k = 0; k < kept; k++) {
+            int nextTop = k + 1 < kept ? cutTop[k + 1] : cutTop[0] + n;
+            int nextBottom = k + 1 < kept ? cutBottom[k + 1] : cutBottom[0] + n;
+            out.add(fragment(seq, n, cutTop[k], cutBottom[k], nextTop, nextBottom, null, null, substrate));
+        }
+        return out;
+    }
+
+    /**
+     * Builds the piece between a left cut and a right cut, in top-strand
+     * coordinates that may run past n on a circular substrate.  A null ext5
+     * means the left end was made by a cut.
+     */
+    private static Polynucleotide fragment(String seq, int n, int leftTop, int leftBottom, int rightTop, int rightBottom,
+            String ext5, Modifications mod5, Polynucleotide substrate) {
+        if (ext5 == null) {
+            mod5 = Modifications.phos5;
+            if (leftTop < leftBottom) {
+                ext5 = slice(seq, n, leftTop, leftBottom);
+            } else if (leftTop > leftBottom) {
+                ext5 = "-" + slice(seq, n, leftBottom, leftTop);
+            } else {
+                ext5 = "";
+            }
+        }
+        String ext3;
+        if (rightTop < rightBottom) {
+            ext3 = slice(seq, n, rightTop, rightBottom);
+        } else if (rightTop > rightBottom) {
+            ext3 = "-" + slice(seq, n, rightBottom, rightTop);
+        } else {
+            ext3 = "";
+        }
+        String body = slice(seq, n, Math.max(leftTop, leftBottom), Math.min(rightTop, rightBottom));
+        return new Polynucleotide(body, ext5, ext3, true, substrate.isIsRNA(), false, mod5, Modifications.phos5);
+    }
+
+    /**
+     * @return seq[from, to), reading across the origin when to passes n
+     */
+    private static String slice(String seq, int n, int from, int to) {
+        if (to <= n) {
+            return seq.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            sb.append(seq.charAt(i % n));
+        }
+        return sb.toString();
+    }
+
+    private RestrictionScanner scannerFor(List<String> names) throws Exception {
+        List<String> key = new ArrayList<>(names);
+        RestrictionScanner scanner = scanners.get(key);
+        if (scanner != null) {
+            return scanner;
+        }
+        List<RestrictionEnzyme> enzymes = new ArrayList<>();
+        for (String name : names) {
+            if (METHYLATION_DEPENDENT.contains(name.toLowerCase())) {
+                continue;
+            }
+            RestrictionEnzyme enz = registry.get(name);
+            if (enz == null) {
+                throw new Exception("No enzyme matches query " + name);
+            }
+            enzymes.add(enz);
+        }
+        scanner = new RestrictionScanner(enzymes);
+        scanners.put(key, scanner);
+        return scanner;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulateDigestion digest = new SimulateDigestion();
+        digest.initiate();
+
+        System.out.println("EcoRI/PstI digest of a linear PCR product");
+        Polynucleotide pcr = new Polynucleotide("ccataGAATTCatgaaagcttaCTGCAGttagc");
+        for (Polynucleotide frag : digest.run(pcr, Arrays.asList("EcoRI", "PstI"))) {
+            System.out.println(frag);
+        }
+
+        System.out.println("BamHI linearizing a plasmid, site across the origin");
+        Polynucleotide plasmid = new Polynucleotide("ATCCaaaaccccttttGG", true);
+        System.out.println(digest.run(plasmid, Arrays.asList("BamHI"), 0));
+
+        System.out.println("BsaI Golden Gate part");
+        Polynucleotide part = new Polynucleotide("ttGGTCTCaAATGcccgggTAAGtGAGACCtt");
+        System.out.println(digest.run(part, Arrays.asList("BsaI", "DpnI"), 1));
+    }
+}
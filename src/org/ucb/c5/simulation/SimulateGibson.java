@@ -0,0 +1,277 @@
+package org.ucb.c5.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.ucb.c5.constructionfile.model.Assembly;
+import org.ucb.c5.constructionfile.model.Modifications;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.sequtils.RevComp;
+import org.ucb.c5.sequtils.SequenceUtils;
+
+/**
+ * Simulates a Gibson (homology) assembly.
+ *
+ * Every fragment is taken in both orientations, overhangs included, and the
+ * first minOverlap bases of each is entered in a hash index.  To find what
+ * follows a fragment, each window of its last maxOverlap bases is looked up
+ * in that index, and a hit is kept if the whole suffix equals the partner's
+ * prefix and melts at minTm or above.  Finding partners so costs
+ * maxOverlap lookups per end, however many fragments there are.
+ *
+ * The path grows from the first fragment to the right and then to the left,
+ * as in SimulateLigation: an end with more than one partner makes the set
+ * ambiguous, and the product is circular if every fragment is used and the
+ * last overlaps the first.
+ */
+public class SimulateGibson {
+
+    private int minOverlap = 15;
+    private int maxOverlap = 80;
+    private double minTm = 48.0;
+
+    public void initiate() throws Exception {
+    }
+
+    /**
+     * @param minOverlap fewest bases two fragments must share
+     * @param maxOverlap most bases two fragments may share
+     * @param minTm lowest melting temperature of an overlap, in degrees C
+     */
+    public void initiate(int minOverlap, int maxOverlap, double minTm) throws Exception {
+        if (minOverlap < 1 || maxOverlap < minOverlap) {
+            throw new IllegalArgumentException("Overlaps of " + minOverlap + " to " + maxOverlap + " bases are not a range");
+        }
+        this.minOverlap = minOverlap;
+        this.maxOverlap = maxOverlap;
+        this.minTm = minTm;
+    }
+
+    /**
+     * @param assembly the step
+     * @param sequences the construction file's sequences, by name
+     * @return the product
+     */
+    public Polynucleotide run(Assembly assembly, Map<String, Polynucleotide> sequences) throws Exception {
+        List<Polynucleotide> frags = new ArrayList<>();
+        for (String name : assembly.getFragments()) {
+            Polynucleotide frag = sequences.get(name);
+            if (frag == null) {
+                throw new Exception("No sequence provided for " + name);
+            }
+            frags.add(frag);
+        }
+        return run(frags);
+    }
+
+    /**
+     * @return the single product of frags
+     * @throws Exception if they are ambiguous or do not assemble
+     */
+    public Polynucleotide run(List<Polynucleotide> frags) throws Exception {
+        SimulateLigation.Result result = assemble(frags);
+        if (result.getProduct() == null) {
+            throw new Exception(result.getStatus() + ": " + result.getMessage());
+        }
+        return result.getProduct();
+    }
+
+    /**
+     * @return the outcome of assembling frags, never throwing
+     */
+    public SimulateLigation.Result assemble(List<Polynucleotide> frags) {
+        int num = frags.size();
+        if (num == 0) {
+            return new SimulateLigation.Result(SimulateLigation.Status.NOT_LIGATABLE, null, "No fragments");
+        }
+
+        //Both orientations of each fragment, overhangs and all
+        RevComp revcomp = new RevComp();
+        String[][] oriented = new String[num][2];
+        for (int i = 0; i < num; i++) {
+            Polynucleotide frag = frags.get(i);
+            if (frag.isCircular()) {
+                return new SimulateLigation.Result(SimulateLigation.Status.NOT_LIGATABLE, null, "Fragment " + i + " is circular");
+            }
+            String full = (letters(frag.getExt5()) + frag.getSequence() + letters(frag.getExt3())).toUpperCase();
+            oriented[i][0] = full;
+            oriented[i][1] = revcomp.run(full);
+        }
+
+        //Index the leading k-mer of every oriented fragment
+        Map<String, List<int[]>> prefixes = new HashMap<>();
+        for (int i = 0; i < num; i++) {
+            for (int o = 0; o < 2; o++) {
+                String seq = oriented[i][o];
+                if (seq.length() < minOverlap) {
+                    continue;
+                }
+                String kmer = seq.substring(0, minOverlap);
+                List<int[]> list = prefixes.get(kmer);
+                if (list == null) {
+                    list = new ArrayList<>(2);
+                    prefixes.put(kmer, list);
+                }
+                list.add(new int[]{i, o});
+            }
+        }
+
+        //Each step of the path is (fragment, orientation, overlap with the step before)
+        boolean[] used = new boolean[num];
+        used[0] = true;
+        List<int[]> path = new ArrayList<>();
+        path.add(new int[]{0, 0, 0});
+
+        //Extend to the right
+        while (path.size() < num) {
+            int[] last = path.get(path.size() - 1);
+            List<int[]> found = partners(oriented, prefixes, last[0], last[1], used);
+            if (found.size() > 1) {
+                return new SimulateLigation.Result(SimulateLigation.Status.AMBIGUOUS, null,
+                        "Fragment " + last[0] + " overlaps fragments " + describe(found));
+            }
+            if (found.isEmpty()) {
+                break;
+            }
+            used[found.get(0)[0]] = true;
+            path.add(found.get(0));
+        }
+
+        //Extend to the left: what precedes the first step is what follows
+        //its other orientation, turned around
+        while (path.size() < num) {
+            int[] first = path.get(0);
+            List<int[]> found = partners(oriented, prefixes, first[0], 1 - first[1], used);
+            if (found.size() > 1) {
+                return new SimulateLigation.Result(SimulateLigation.Status.AMBIGUOUS, null,
+                        "Fragment " + first[0] + " is overlapped by fragments " + describe(found));
+            }
+            if (found.isEmpty()) {
+                break;
+            }
+            int[] hit = found.get(0);
+            used[hit[0]] = true;
+            first[2] = hit[2];
+            path.add(0, new int[]{hit[0], 1 - hit[1], 0});
+        }
+
+        if (path.size() < num) {
+            List<Integer> joined = new ArrayList<>();
+            List<Integer> left = new ArrayList<>();
+            for (int i = 0; i < num; i++) {
+                (used[i] ? joined : left).add(i);
+            }
+            return new SimulateLigation.Result(SimulateLigation.Status.NOT_LIGATABLE, null,
+                    "Fragments " + joined + " overlap none of fragments " + left);
+        }
+
+        //Join the path, dropping each overlap from the fragment that follows it
+        StringBuilder sb = new StringBuilder();
+        for (int[] step : path) {
+            sb.append(oriented[step[0]][step[1]], step[2], oriented[step[0]][step[1]].length());
+        }
+
+        //It closes if the last fragment overlaps the first as placed
+        int[] first = path.get(0);
+        int[] last = path.get(path.size() - 1);
+        int close = overlap(oriented[last[0]][last[1]], oriented[first[0]][first[1]]);
+        if (close > 0) {
+            String seq = sb.substring(0, sb.length() - close);
+            Polynucleotide product = new Polynucleotide(seq, "", "", true, false, true, Modifications.circular, Modifications.circular);
+            return new SimulateLigation.Result(SimulateLigation.Status.CIRCULAR, product, "Circular product of " + num + " fragments");
+        }
+        Polynucleotide product = new Polynucleotide(sb.toString(), "", "", true, false, false, Modifications.hydroxyl, Modifications.hydroxyl);
+        return new SimulateLigation.Result(SimulateLigation.Status.LINEAR, product, "Linear product of " + num + " fragments");
+    }
+
+    /**
+     * @return the longest overlap by which the end of seq repeats the start
+     * of other, within the limits and melting at minTm or above, or 0
+     */
+    private int overlap(String seq, String other) {
+        int len = seq.length();
+        for (int overlap = Math.min(maxOverlap, len); overlap >= minOverlap; overlap--) {
+            if (overlap < other.length() && seq.regionMatches(len - overlap, other, 0, overlap)
+                    && SequenceUtils.calcTm(seq.substring(len - overlap)) >= minTm) {
+                return overlap;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return (fragment, orientation, overlap) of each unused fragment whose
+     * start repeats the end of fragment i in orientation o, taking the
+     * longest overlap for each
+     */
+    private List<int[]> partners(String[][] oriented, Map<String, List<int[]>> prefixes, int i, int o, boolean[] used) {
+        String seq = oriented[i][o];
+        int len = seq.length();
+        List<int[]> out = new ArrayList<>(1);
+        int from = Math.max(len - maxOverlap, 0);
+        for (int start = from; start <= len - minOverlap; start++) {
+            List<int[]> hits = prefixes.get(seq.substring(start, start + minOverlap));
+            if (hits == null) {
+                continue;
+            }
+            int overlap = len - start;
+            for (int[] hit : hits) {
+                if (used[hit[0]] || (hit[0] == i && oriented.length > 1)) {
+                    continue;
+                }
+                if (contains(out, hit[0])) {
+                    continue;
+                }
+                String other = oriented[hit[0]][hit[1]];
+                if (overlap >= other.length() || !seq.regionMatches(start, other, 0, overlap)) {
+                    continue;
+                }
+                if (SequenceUtils.calcTm(seq.substring(start)) < minTm) {
+                    continue;
+                }
+                out.add(new int[]{hit[0], hit[1], overlap});
+            }
+        }
+        return out;
+    }
+
+    private static boolean contains(List<int[]> found, int index) {
+        for (int[] hit : found) {
+            if (hit[0] == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String letters(String overhang) {
+        return overhang.startsWith("-") ? overhang.substring(1) : overhang;
+    }
+
+    private static String describe(List<int[]> found) {
+        List<String> out = new ArrayList<>();
+        for (int[] hit : found) {
+            out.add(hit[0] + " (" + hit[2] + " bp)");
+        }
+        return out.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulateGibson gibson = new SimulateGibson();
+        gibson.initiate();
+
+        //Three PCR products sharing 25 bp overlaps, the middle one reversed
+        String plasmid = "ttgacagctagctcagtcctaggtataatactagtcatcgccgcagcggtttcaggttttagagctagaaatagcaagttaaaataaggctagtccgttatcaacttgaaaaagtggcaccgagtcggtgctttttttgaattcgcatgcatgcatgcatccagttatcgcgcgcgattacgagc";
+        int third = plasmid.length() / 3;
+        String a = plasmid.substring(0, third + 25);
+        String b = plasmid.substring(third, 2 * third + 25);
+        String c = plasmid.substring(2 * third) + plasmid.substring(0, 25);
+        List<Polynucleotide> frags = Arrays.asList(new Polynucleotide(a), new Polynucleotide(new RevComp().run(b)), new Polynucleotide(c));
+
+        SimulateLigation.Result result = gibson.assemble(frags);
+        System.out.println(result.getStatus() + ": " + result.getMessage());
+        System.out.println(result.getProduct().getSequence().equalsIgnoreCase(plasmid));
+    }
+}
@@ -0,0 +1,374 @@
+package org.ucb.c5.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.ucb.c5.constructionfile.EnzymeRegistry;
+import org.ucb.c5.constructionfile.model.Assembly;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.constructionfile.model.RestrictionEnzyme;
+import org.ucb.c5.sequtils.CanonicalForm;
+import org.ucb.c5.sequtils.RestrictionScanner;
+
+/**
+ * Simulates a Golden Gate assembly.
+ *
+ * Each part is digested with the Type IIS enzyme and the pieces left with
+ * no site are kept; the pieces still holding a site are the ones re-cut in
+ * the pot.  The kept pieces form a graph whose nodes are their overhangs,
+ * which SimulateLigation walks to the product.  Overhangs that are
+ * palindromic, or within one mismatch of another junction's overhang on
+ * either strand, are reported as misligation risks.
+ *
+ * Digested parts are cached by part and enzyme, and the outcome by fragment
+ * set, so a combinatorial library re-using a few parts in thousands of
+ * assemblies digests each part once; runAll simulates the assemblies in
+ * parallel.  Each cache keeps the most recently used entries up to its
+ * limit, computes an entry once however many threads ask for it together,
+ * and is emptied by clear().
+ */
+public class SimulateGoldenGate {
+
+    /**
+     * The outcome of an assembly: the ligation outcome, plus the junctions
+     * at risk of misligation
+     */
+    public static class Result {
+
+        private final SimulateLigation.Status status;
+        private final Polynucleotide product;
+        private final String message;
+        private final List<String> risks;
+
+        Result(SimulateLigation.Status status, Polynucleotide product, String message, List<String> risks) {
+            this.status = status;
+            this.product = product;
+            this.message = message;
+            this.risks = risks;
+        }
+
+        public SimulateLigation.Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the product, or null if there is not exactly one
+         */
+        public Polynucleotide getProduct() {
+            return product;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return a description of each risky overhang or pair, possibly
+         * empty
+         */
+        public List<String> getRisks() {
+            return risks;
+        }
+    }
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private EnzymeRegistry registry;
+    private SimulateDigestion digestion;
+    private SimulateLigation ligation;
+
+    //Kept pieces by enzyme and part, and outcomes by enzyme and fragment set
+    private Memo<List<Polynucleotide>> digested;
+    private Memo<Result> outcomes;
+    private final Map<String, RestrictionScanner> scanners = new ConcurrentHashMap<>();
+
+    public void initiate() throws Exception {
+        initiate(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries the most digested parts, and separately the most
+     * outcomes, to keep
+     */
+    public void initiate(int maxEntries) throws Exception {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        digested = new Memo<>(maxEntries);
+        outcomes = new Memo<>(maxEntries);
+        registry = EnzymeRegistry.getDefault();
+        digestion = new SimulateDigestion();
+        digestion.initiate();
+        ligation = new SimulateLigation();
+        ligation.initiate();
+    }
+
+    /**
+     * @param assembly the step
+     * @param sequences the construction file's sequences, by name
+     * @return the product
+     */
+    public Polynucleotide run(Assembly assembly, Map<String, Polynucleotide> sequences) throws Exception {
+        List<Polynucleotide> parts = new ArrayList<>();
+        for (String name : assembly.getFragments()) {
+            Polynucleotide part = sequences.get(name);
+            if (part == null) {
+                throw new Exception("No sequence provided for " + name);
+            }
+            parts.add(part);
+        }
+        return run(parts, assembly.getEnzyme());
+    }
+
+    /**
+     * @return the single product of parts
+     * @throws Exception if the enzyme is unknown, or the parts give no
+     * product or more than one
+     */
+    public Polynucleotide run(List<Polynucleotide> parts, String enzyme) throws Exception {
+        Result result = assemble(parts, enzyme);
+        if (result.getProduct() == null) {
+            throw new Exception(result.getStatus() + ": " + result.getMessage());
+        }
+        return result.getProduct();
+    }
+
+    /**
+     * @return the outcome of assembling parts with enzyme
+     */
+    public Result assemble(final List<Polynucleotide> parts, String enzyme) throws Exception {
+        final RestrictionEnzyme enz = registry.get(enzyme);
+        if (enz == null) {
+            throw new Exception("No enzyme matches query " + enzyme);
+        }
+        List<Object> key = new ArrayList<>(parts.size() + 1);
+        key.add(enz.getName());
+        key.addAll(parts);
+        return outcomes.get(key, new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                return compute(parts, enz);
+            }
+        });
+    }
+
+    /**
+     * Empties the caches of digested parts and outcomes
+     */
+    public void clear() {
+        digested.clear();
+        outcomes.clear();
+    }
+
+    /**
+     * Simulates every design in parallel
+     *
+     * @return the outcomes, in the order of designs
+     */
+    public List<Result> runAll(List<List<Polynucleotide>> designs, final String enzyme) throws Exception {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (final List<Polynucleotide> parts : designs) {
+            tasks.add(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    return assemble(parts, enzyme);
+                }
+            });
+        }
+        List<Result> out = new ArrayList<>();
+        for (Future<Result> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            out.add(future.get());
+        }
+        return out;
+    }
+
+    private Result compute(List<Polynucleotide> parts, RestrictionEnzyme enz) throws Exception {
+        List<Polynucleotide> pieces = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            List<Polynucleotide> kept = keptPieces(parts.get(i), enz);
+            if (kept.isEmpty()) {
+                return new Result(SimulateLigation.Status.NOT_LIGATABLE, null,
+                        "Part " + i + " leaves nothing free of " + enz.getName() + " sites", Collections.<String>emptyList());
+            }
+            pieces.addAll(kept);
+        }
+        List<String> risks = risks(pieces);
+        SimulateLigation.Result ligated = ligation.ligate(pieces);
+        return new Result(ligated.getStatus(), ligated.getProduct(), ligated.getMessage(), risks);
+    }
+
+    /**
+     * @return the pieces of part cut with enz that hold no site of it
+     */
+    private List<Polynucleotide> keptPieces(final Polynucleotide part, final RestrictionEnzyme enz) throws Exception {
+        return digested.get(Arrays.<Object>asList(enz.getName(), part), new Callable<List<Polynucleotide>>() {
+            @Override
+            public List<Polynucleotide> call() throws Exception {
+                RestrictionScanner scanner = scanners.get(enz.getName());
+                if (scanner == null) {
+                    scanner = new RestrictionScanner(Collections.singletonList(enz));
+                    scanners.put(enz.getName(), scanner);
+                }
+                List<Polynucleotide> kept = new ArrayList<>();
+                for (Polynucleotide piece : digestion.run(part, Collections.singletonList(enz.getName()))) {
+                    if (scanner.scan(piece.getForwardStrand(), false).size() == 0) {
+                        kept.add(piece);
+                    }
+                }
+                return Collections.unmodifiableList(kept);
+            }
+        });
+    }
+
+    /**
+     * @return the palindromic overhangs, and the pairs of overhangs within one
+     * mismatch of each other on either strand
+     */
+    private static List<String> risks(List<Polynucleotide> pieces) {
+        //Each junction appears as the right end of one piece
+        List<String> overhangs = new ArrayList<>();
+        for (Polynucleotide piece : pieces) {
+            String ext = piece.getExt3().toUpperCase();
+            if (!ext.isEmpty() && !overhangs.contains(ext)) {
+                overhangs.add(ext);
+            }
+        }
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < overhangs.size(); i++) {
+            String a = overhangs.get(i);
+            if (a.equals(CanonicalForm.flipExtension(a))) {
+                out.add(a + " is palindromic and can join itself");
+            }
+            for (int j = i + 1; j < overhangs.size(); j++) {
+                String b = overhangs.get(j);
+                String flipped = CanonicalForm.flipExtension(b);
+                if (a.equals(flipped)) {
+                    continue;
+                }
+                if (mismatches(a, b) <= 1) {
+                    out.add(a + " and " + b + " differ at one position");
+                } else if (mismatches(a, flipped) <= 1) {
+                    out.add(a + " and " + b + " are one mismatch from complementary");
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the Hamming distance of a and b, or their length if the
+     * lengths or polarities differ
+     */
+    private static int mismatches(String a, String b) {
+        if (a.length() != b.length() || a.startsWith("-") != b.startsWith("-")) {
+            return Math.max(a.length(), b.length());
+        }
+        int out = 0;
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                out++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * A size-bounded, least recently used cache of computed values.  A key
+     * asked for by several threads at once is computed by the first of them
+     * while the others wait for its value.
+     */
+    private static final class Memo<V> {
+
+        private final int maxEntries;
+        private final LinkedHashMap<List<Object>, CompletableFuture<V>> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+        Memo(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        V get(List<Object> key, Callable<V> compute) throws Exception {
+            CompletableFuture<V> future;
+            boolean owner = false;
+            synchronized (this) {
+                future = entries.get(key);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    entries.put(key, future);
+                    owner = true;
+
+                    //Evict from the least recently used end
+                    Iterator<List<Object>> it = entries.keySet().iterator();
+                    while (entries.size() > maxEntries) {
+                        it.next();
+                        it.remove();
+                    }
+                }
+            }
+            if (owner) {
+                try {
+                    future.complete(compute.call());
+                } catch (Exception err) {
+                    //Forget the failure so a later call tries again
+                    synchronized (this) {
+                        entries.remove(key, future);
+                    }
+                    future.completeExceptionally(err);
+                    throw err;
+                } catch (Error err) {
+                    synchronized (this) {
+                        entries.remove(key, future);
+                    }
+                    future.completeExceptionally(err);
+                    throw err;
+                }
+            }
+            try {
+                return future.get();
+            } catch (ExecutionException err) {
+                Throwable cause = err.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulateGoldenGate gg = new SimulateGoldenGate();
+        gg.initiate();
+
+        //A promoter and a CDS into a dropout vector, BsaI sites facing the parts
+        Polynucleotide vector = new Polynucleotide("GGAGtgagaccaaacccgggtttggtctcaTACTcgtacgtaccgtacgtatgcatgcatgc", true);
+        Polynucleotide promoter = new Polynucleotide("aaggtctcaGGAGttgacagctagctcagtcctaggAATGtgagaccaa");
+        Polynucleotide cds = new Polynucleotide("aaggtctcaAATGgctagcaaaggagaagaactttttaTACTtgagaccaa");
+        Result result = gg.assemble(Arrays.asList(vector, promoter, cds), "BsaI");
+        System.out.println(result.getStatus() + ": " + result.getMessage());
+        System.out.println(result.getProduct().getSequence());
+        System.out.println("risks: " + result.getRisks());
+
+        //A CDS whose overhang is one base off the promoter's
+        Polynucleotide near = new Polynucleotide("aaggtctcaAATGgctagcaaaggagaagaactttttaAATCtgagaccaa");
+        Polynucleotide term = new Polynucleotide("aaggtctcaAATCtaaagcgcgcgcTACTtgagaccaa");
+        List<List<Polynucleotide>> designs = new ArrayList<>();
+        designs.add(Arrays.asList(vector, promoter, cds));
+        designs.add(Arrays.asList(vector, promoter, near, term));
+        for (Result res : gg.runAll(designs, "BsaI")) {
+            System.out.println(res.getStatus() + " " + res.getRisks());
+        }
+    }
+}
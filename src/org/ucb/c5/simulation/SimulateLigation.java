@@ -0,0 +1,307 @@
+package org.ucb.c5.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.ucb.c5.constructionfile.model.Ligation;
+import org.ucb.c5.constructionfile.model.Modifications;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+
+/**
+ * Simulates a ligation.
+ *
+ * Fragment ends are indexed in a hash map keyed on the overhang, in
+ * top-strand letters with a leading "-" for a 3' overhang, and on whether
+ * the end's 5' terminus is phosphorylated.  Every fragment is entered in
+ * both orientations.  The right end of one fragment joins the left end of
+ * another when the two overhangs are the same string and at least one of
+ * the two 5' ends carries phos5, so a partner is found with at most two
+ * lookups rather than by comparing against every other fragment.
+ *
+ * The product grows from the first fragment in both directions.  It is
+ * circular if all fragments are used and its two ends then join, linear if
+ * all are used and they do not, and otherwise the set does not ligate.  An
+ * end with more than one unused partner, including one fragment in two
+ * orientations as with palindromic overhangs, makes the set ambiguous.
+ */
+public class SimulateLigation {
+
+    public enum Status {
+        CIRCULAR,
+        LINEAR,
+        AMBIGUOUS,
+        NOT_LIGATABLE
+    }
+
+    /**
+     * The outcome of a ligation: the product if there is exactly one, and
+     * otherwise a description of where it went wrong
+     */
+    public static class Result {
+
+        private final Status status;
+        private final Polynucleotide product;
+        private final String message;
+
+        Result(Status status, Polynucleotide product, String message) {
+            this.status = status;
+            this.product = product;
+            this.message = message;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the product, or null if the status is AMBIGUOUS or
+         * NOT_LIGATABLE
+         */
+        public Polynucleotide getProduct() {
+            return product;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    public void initiate() throws Exception {
+    }
+
+    /**
+     * @param ligation the step
+     * @param sequences the construction file's sequences, by name
+     * @return the product
+     */
+    public Polynucleotide run(Ligation ligation, Map<String, Polynucleotide> sequences) throws Exception {
+        List<Polynucleotide> frags = new ArrayList<>();
+        for (String name : ligation.getFragments()) {
+            Polynucleotide frag = sequences.get(name);
+            if (frag == null) {
+                throw new Exception("No sequence provided for " + name);
+            }
+            frags.add(frag);
+        }
+        return run(frags);
+    }
+
+    /**
+     * @return the single product of frags
+     * @throws Exception if they are ambiguous or do not ligate
+     */
+    public Polynucleotide run(List<Polynucleotide> frags) throws Exception {
+        Result result = ligate(frags);
+        if (result.getProduct() == null) {
+            throw new Exception(result.getStatus() + ": " + result.getMessage());
+        }
+        return result.getProduct();
+    }
+
+    /**
+     * @return the outcome of ligating frags, never throwing
+     */
+    public Result ligate(List<Polynucleotide> frags) {
+        int num = frags.size();
+        if (num == 0) {
+            return new Result(Status.NOT_LIGATABLE, null, "No fragments");
+        }
+        Piece[][] pieces = new Piece[num][];
+        for (int i = 0; i < num; i++) {
+            Polynucleotide frag = frags.get(i);
+            if (!frag.isIsDoubleStranded() || frag.isCircular()) {
+                return new Result(Status.NOT_LIGATABLE, null, "Fragment " + i + " is not a linear duplex");
+            }
+            pieces[i] = new Piece[]{new Piece(i, frag), new Piece(i, frag.getReverseComplement())};
+        }
+
+        //Index every end of every fragment in both orientations
+        Map<String, List<Piece>> lefts = new HashMap<>();
+        Map<String, List<Piece>> rights = new HashMap<>();
+        for (Piece[] both : pieces) {
+            for (Piece piece : both) {
+                add(lefts, key(piece.left, piece.leftPhos), piece);
+                add(rights, key(piece.right, piece.rightPhos), piece);
+            }
+        }
+
+        boolean[] used = new boolean[num];
+        List<Piece> chain = new ArrayList<>();
+        chain.add(pieces[0][0]);
+        used[0] = true;
+
+        //Extend to the right, then to the left
+        Piece last = pieces[0][0];
+        while (true) {
+            List<Piece> found = partners(lefts, last.right, last.rightPhos, used);
+            if (found.size() > 1) {
+                return new Result(Status.AMBIGUOUS, null, "The right end of fragment " + last.index + " (" + describe(last.right)
+                        + ") can join fragments " + indices(found));
+            }
+            if (found.isEmpty()) {
+                break;
+            }
+            last = found.get(0);
+            used[last.index] = true;
+            chain.add(last);
+        }
+        List<Piece> head = new ArrayList<>();
+        Piece first = pieces[0][0];
+        while (true) {
+            List<Piece> found = partners(rights, first.left, first.leftPhos, used);
+            if (found.size() > 1) {
+                return new Result(Status.AMBIGUOUS, null, "The left end of fragment " + first.index + " (" + describe(first.left)
+                        + ") can join fragments " + indices(found));
+            }
+            if (found.isEmpty()) {
+                break;
+            }
+            first = found.get(0);
+            used[first.index] = true;
+            head.add(first);
+        }
+        for (int i = 0; i < head.size(); i++) {
+            chain.add(0, head.get(i));
+        }
+
+        if (chain.size() < num) {
+            List<Integer> left = new ArrayList<>();
+            for (int i = 0; i < num; i++) {
+                if (!used[i]) {
+                    left.add(i);
+                }
+            }
+            return new Result(Status.NOT_LIGATABLE, null, "Fragments " + left + " have no compatible ends in the product of " + chain.size());
+        }
+
+        //Sum the sequence: each junction contributes its overhang letters
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < chain.size(); i++) {
+            Piece piece = chain.get(i);
+            sb.append(piece.frag.getSequence());
+            if (i < chain.size() - 1) {
+                sb.append(letters(piece.right));
+            }
+        }
+        first = chain.get(0);
+        last = chain.get(chain.size() - 1);
+        if (joins(last.right, last.rightPhos, first.left, first.leftPhos)) {
+            sb.append(letters(last.right));
+            Polynucleotide product = new Polynucleotide(sb.toString(), "", "", true, first.frag.isIsRNA(), true,
+                    Modifications.circular, Modifications.circular);
+            return new Result(Status.CIRCULAR, product, "Circular product of " + num + " fragments");
+        }
+        Polynucleotide product = new Polynucleotide(sb.toString(), first.frag.getExt5(), last.frag.getExt3(), true,
+                first.frag.isIsRNA(), false, first.frag.getMod5(), last.frag.getMod3());
+        return new Result(Status.LINEAR, product, "Linear product of " + num + " fragments");
+    }
+
+    /**
+     * One fragment in one orientation, with its ends normalized for lookup
+     */
+    private static final class Piece {
+
+        final int index;
+        final Polynucleotide frag;
+        final String left;
+        final String right;
+        final boolean leftPhos;
+        final boolean rightPhos;
+
+        Piece(int index, Polynucleotide frag) {
+            this.index = index;
+            this.frag = frag;
+            this.left = frag.getExt5().toUpperCase();
+            this.right = frag.getExt3().toUpperCase();
+            this.leftPhos = frag.getMod5() == Modifications.phos5;
+            this.rightPhos = frag.getMod3() == Modifications.phos5;
+        }
+    }
+
+    private static String key(String overhang, boolean phos) {
+        return (phos ? "p" : "h") + overhang;
+    }
+
+    private static void add(Map<String, List<Piece>> index, String key, Piece piece) {
+        List<Piece> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            index.put(key, list);
+        }
+        list.add(piece);
+    }
+
+    /**
+     * @return the unused pieces with an end matching overhang that can be
+     * ligated to it: all of them if this end is phosphorylated, else only
+     * the phosphorylated ones
+     */
+    private static List<Piece> partners(Map<String, List<Piece>> index, String overhang, boolean phos, boolean[] used) {
+        List<Piece> out = new ArrayList<>(1);
+        collect(index.get(key(overhang, true)), used, out);
+        if (phos) {
+            collect(index.get(key(overhang, false)), used, out);
+        }
+        return out;
+    }
+
+    private static void collect(List<Piece> candidates, boolean[] used, List<Piece> out) {
+        if (candidates == null) {
+            return;
+        }
+        for (Piece piece : candidates) {
+            if (!used[piece.index]) {
+                out.add(piece);
+            }
+        }
+    }
+
+    private static boolean joins(String right, boolean rightPhos, String left, boolean leftPhos) {
+        return right.equals(left) && (rightPhos || leftPhos);
+    }
+
+    private static String letters(String overhang) {
+        return overhang.startsWith("-") ? overhang.substring(1) : overhang;
+    }
+
+    private static String describe(String overhang) {
+        return overhang.isEmpty() ? "blunt" : overhang;
+    }
+
+    private static List<Integer> indices(List<Piece> found) {
+        List<Integer> out = new ArrayList<>();
+        for (Piece piece : found) {
+            if (!out.contains(piece.index)) {
+                out.add(piece.index);
+            }
+        }
+        return out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulateDigestion digest = new SimulateDigestion();
+        digest.initiate();
+        SimulateLigation ligate = new SimulateLigation();
+        ligate.initiate();
+
+        //Clone an EcoRI/PstI insert into an EcoRI/PstI cut vector
+        Polynucleotide vector = new Polynucleotide("GAATTCttttaaaaccccggggCTGCAGaaacccgggtttaaacccgggttt", true);
+        Polynucleotide pcr = new Polynucleotide("ccataGAATTCatgaaagcttaCTGCAGttagc");
+        List<Polynucleotide> vectorFrags = digest.run(vector, Arrays.asList("EcoRI", "PstI"));
+        Polynucleotide backbone = vectorFrags.get(1);
+        Polynucleotide insert = digest.run(pcr, Arrays.asList("EcoRI", "PstI"), 1);
+        System.out.println(backbone);
+        System.out.println(insert);
+
+        Result result = ligate.ligate(Arrays.asList(backbone, insert));
+        System.out.println(result.getStatus() + ": " + result.getProduct().getSequence());
+
+        //A single BamHI site gives a palindromic overhang, so two fragments could join either way
+        Polynucleotide bam = new Polynucleotide("aaaGGATCCtttcccGGATCCggg");
+        List<Polynucleotide> bamFrags = digest.run(bam, Arrays.asList("BamHI"));
+        result = ligate.ligate(Arrays.asList(bamFrags.get(0), bamFrags.get(1), bamFrags.get(2)));
+        System.out.println(result.getStatus() + ": " + result.getMessage());
+    }
+}
@@ -0,0 +1,480 @@
+package org.ucb.c5.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.ucb.c5.constructionfile.model.Modifications;
+import org.ucb.c5.constructionfile.model.PCR;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.sequtils.PackedSequence;
+import org.ucb.c5.sequtils.RevComp;
+
+/**
+ * Simulates a PCR.
+ *
+ * Each template gets a seed index of its top-strand k-mers, built once and
+ * kept for as long as the template is in use, so any number of PCRs on the
+ * same plasmid share it.  A primer binds where its 3'-most SEED bases match
+ * exactly; the match is then extended toward the primer's 5' end, allowing
+ * up to maxMismatches, and whatever does not anneal is a 5' tail that ends
+ * up in the product.  Forward sites are found with the primer's seed,
+ * reverse sites with the reverse complement of it, so both strands come
+ * from the one index.  Circular templates are indexed across the origin,
+ * and a product may run across it, as in inverse PCR.  When primers allow
+ * more than one product the shortest is taken, as it dominates in the tube.
+ *
+ * If the templates are oligos (PCA), they are first merged by their
+ * overlaps into the assembled duplex, which is then amplified.
+ */
+public class SimulatePCR {
+
+    public static final int SEED = 12;
+
+    private int maxMismatches = 2;
+    private int minAnneal = 15;
+    private int minOverlap = 15;
+
+    //Seed indices by template; entries go when the template does
+    private final Map<Polynucleotide, SeedIndex> indices = Collections.synchronizedMap(new WeakHashMap<Polynucleotide, SeedIndex>());
+
+    public void initiate() throws Exception {
+    }
+
+    /**
+     * @param maxMismatches mismatches allowed between the seed and the 5' end
+     * of the annealed region
+     * @param minAnneal fewest primer bases that must anneal, seed included
+     * @param minOverlap fewest bases two PCA oligos must share to be joined
+     */
+    public void initiate(int maxMismatches, int minAnneal, int minOverlap) throws Exception {
+        if (minAnneal < SEED) {
+            throw new IllegalArgumentException("Primers must anneal over at least the " + SEED + " base seed");
+        }
+        this.maxMismatches = maxMismatches;
+        this.minAnneal = minAnneal;
+        this.minOverlap = minOverlap;
+    }
+
+    /**
+     * @param pcr the step
+     * @param sequences the construction file's sequences, by name
+     * @return the product
+     */
+    public Polynucleotide run(PCR pcr, Map<String, Polynucleotide> sequences) throws Exception {
+        List<Polynucleotide> templates = new ArrayList<>();
+        for (String name : pcr.getTemplates()) {
+            templates.add(lookup(sequences, name));
+        }
+        return run(lookup(sequences, pcr.getOligo1()), lookup(sequences, pcr.getOligo2()), templates);
+    }
+
+    /**
+     * @return the product of oligo1 and oligo2 on templates
+     * @throws Exception if the primers give no product
+     */
+    public Polynucleotide run(Polynucleotide oligo1, Polynucleotide oligo2, List<Polynucleotide> templates) throws Exception {
+        List<Polynucleotide> targets = templates;
+        if (isPCA(templates)) {
+            targets = assemble(templates);
+        }
+
+        String p1 = oligo1.getSequence().toUpperCase();
+        String p2 = oligo2.getSequence().toUpperCase();
+        Product best = null;
+        boolean flipped = false;
+        for (Polynucleotide template : targets) {
+            SeedIndex index = indexOf(template);
+            Product found = bestProduct(index, p1, p2);
+            if (found != null && (best == null || found.length() < best.length())) {
+                best = found;
+                flipped = false;
+            }
+            found = bestProduct(index, p2, p1);
+            if (found != null && (best == null || found.length() < best.length())) {
+                best = found;
+                flipped = true;
+            }
+        }
+        if (best == null) {
+            throw new Exception("Oligos " + p1 + " and " + p2 + " give no PCR product");
+        }
+
+        //The product's ends are the primers' 5' ends
+        Modifications mod5 = flipped ? oligo2.getMod5() : oligo1.getMod5();
+        Modifications mod3 = flipped ? oligo1.getMod5() : oligo2.getMod5();
+        return new Polynucleotide(best.build(), "", "", true, false, false, mod5, mod3);
+    }
+
+    private static Polynucleotide lookup(Map<String, Polynucleotide> sequences, String name) throws Exception {
+        Polynucleotide out = sequences.get(name);
+        if (out == null) {
+            throw new Exception("No sequence provided for " + name);
+        }
+        return out;
+    }
+
+    private SeedIndex indexOf(Polynucleotide template) {
+        SeedIndex index = indices.get(template);
+        //Equal templates may be rotations of one another, so check it is this one
+        if (index == null || !index.packed.equals(template.getPackedSequence())) {
+            index = new SeedIndex(template);
+            indices.put(template, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the shortest product with fwd binding the bottom strand and
+     * rev the top, or null
+     */
+    private Product bestProduct(SeedIndex index, String fwd, String rev) {
+        if (fwd.length() < SEED || rev.length() < SEED) {
+            return null;
+        }
+        int[] fwdEnds = forwardSites(index, fwd);
+        if (fwdEnds.length == 0) {
+            return null;
+        }
+        int[] revStarts = reverseSites(index, rev);
+        Product best = null;
+        for (int k = 0; k < fwdEnds.length; k += 2) {
+            int end = fwdEnds[k];
+            int fwdAnneal = fwdEnds[k + 1];
+            for (int j = 0; j < revStarts.length; j += 2) {
+                int start = revStarts[j];
+                int revAnneal = revStarts[j + 1];
+                if (index.circular && start < end - fwdAnneal) {
+                    start += index.n;
+                }
+                //The reverse primer must anneal downstream of the forward one's start
+                if (start < end - fwdAnneal || start + revAnneal < end) {
+                    continue;
+                }
+                Product candidate = new Product(index, fwd, end, rev, start);
+                if (index.circular && candidate.templateSpan() > index.n + Math.min(fwdAnneal, revAnneal)) {
+                    continue;
+                }
+                if (best == null || candidate.length() < best.length()) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return pairs of (end of the annealed region on the top strand,
+     * annealed length) for primer read as top strand
+     */
+    private int[] forwardSites(SeedIndex index, String primer) {
+        long seed = SeedIndex.encode(primer, primer.length() - SEED, SEED);
+        if (seed < 0) {
+            return new int[0];
+        }
+        int[] hits = index.find(seed);
+        int[] out = new int[hits.length * 2];
+        int num = 0;
+        for (int pos : hits) {
+            int end = pos + SEED;
+            //Walk from the seed toward the primer's 5' end
+            int annealed = anneal(index, primer, end, false);
+            if (annealed >= minAnneal) {
+                out[num++] = end;
+                out[num++] = annealed;
+            }
+        }
+        return Arrays.copyOf(out, num);
+    }
+
+    /**
+     * @return pairs of (start of the annealed region on the top strand,
+     * annealed length) for primer read as bottom strand
+     */
+    private int[] reverseSites(SeedIndex index, String primer) {
+        String rc = new RevComp().run(primer.substring(primer.length() - SEED));
+        long seed = SeedIndex.encode(rc, 0, SEED);
+        if (seed < 0) {
+            return new int[0];
+        }
+        int[] hits = index.find(seed);
+        int[] out = new int[hits.length * 2];
+        int num = 0;
+        for (int pos : hits) {
+            int annealed = anneal(index, primer, pos, true);
+            if (annealed >= minAnneal) {
+                out[num++] = pos;
+                out[num++] = annealed;
+            }
+        }
+        return Arrays.copyOf(out, num);
+    }
+
+    /**
+     * Counts how much of primer anneals, from its 3' end, keeping the
+     * annealed region ending on a match and holding at most maxMismatches.
+     * For a forward primer anchor is the top-strand position just past its
+     * 3' end; for a reverse primer it is the top-strand position of its 3'
+     * end.
+     */
+    private int anneal(SeedIndex index, String primer, int anchor, boolean reverse) {
+        int len = primer.length();
+        int mismatches = 0;
+        int annealed = SEED;
+        for (int i = SEED; i < len; i++) {
+            int pos = reverse ? anchor + i : anchor - 1 - i;
+            if (!index.circular && (pos < 0 || pos >= index.n)) {
+                break;
+            }
+            char templ = index.charAt(pos);
+            char base = primer.charAt(len - 1 - i);
+            boolean match = reverse ? templ == complement(base) : templ == base;
+            if (match) {
+                annealed = i + 1;
+            } else if (++mismatches > maxMismatches) {
+                break;
+            }
+        }
+        return annealed;
+    }
+
+    private static char complement(char base) {
+        switch (base) {
+            case 'A':
+                return 'T';
+            case 'C':
+                return 'G';
+            case 'G':
+                return 'C';
+            case 'T':
+                return 'A';
+            default:
+                return 'N';
+        }
+    }
+
+    private static boolean isPCA(List<Polynucleotide> templates) {
+        if (templates.size() < 2) {
+            return false;
+        }
+        for (Polynucleotide templ : templates) {
+            if (templ.isIsDoubleStranded()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Joins PCA oligos by their longest overlaps, trying each oligo on
+     * either strand, until no pair overlaps by minOverlap
+     */
+    private List<Polynucleotide> assemble(List<Polynucleotide> oligos) {
+        RevComp revcomp = new RevComp();
+        List<String> contigs = new ArrayList<>();
+        for (Polynucleotide oligo : oligos) {
+            contigs.add(oligo.getSequence().toUpperCase());
+        }
+        boolean merged = true;
+        while (merged && contigs.size() > 1) {
+            merged = false;
+            int bestI = -1;
+            int bestJ = -1;
+            int bestOverlap = minOverlap - 1;
+            boolean bestFlip = false;
+            for (int i = 0; i < contigs.size(); i++) {
+                for (int j = 0; j < contigs.size(); j++) {
+                    if (i == j) {
+                        continue;
+                    }
+                    String left = contigs.get(i);
+                    String right = contigs.get(j);
+                    int plain = overlap(left, right);
+                    int flipped = overlap(left, revcomp.run(right));
+                    if (plain > bestOverlap) {
+                        bestOverlap = plain;
+                        bestI = i;
+                        bestJ = j;
+                        bestFlip = false;
+                    }
+                    if (flipped > bestOverlap) {
+                        bestOverlap = flipped;
+                        bestI = i;
+                        bestJ = j;
+                        bestFlip = true;
+                    }
+                }
+            }
+            if (bestI >= 0) {
+                String left = contigs.get(bestI);
+                String right = bestFlip ? revcomp.run(contigs.get(bestJ)) : contigs.get(bestJ);
+                String joined = left + right.substring(bestOverlap);
+                contigs.set(bestI, joined);
+                contigs.remove(bestJ);
+                merged = true;
+            }
+        }
+        List<Polynucleotide> out = new ArrayList<>();
+        for (String contig : contigs) {
+            out.add(new Polynucleotide(contig));
+        }
+        return out;
+    }
+
+    /**
+     * @return the longest suffix of left that is a prefix of right
+     */
+    private static int overlap(String left, String right) {
+        for (int len = Math.min(left.length(), right.length()) - 1; len > 0; len--) {
+            if (left.regionMatches(left.length() - len, right, 0, len)) {
+                return len;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sorted (k-mer, position) pairs of a template's top strand
+     */
+    private static final class SeedIndex {
+
+        final PackedSequence packed;
+        final String seq;
+        final int n;
+        final boolean circular;
+        final long[] entries;
+
+        SeedIndex(Polynucleotide template) {
+            this.packed = template.getPackedSequence();
+            this.seq = template.getSequence().toUpperCase();
+            this.n = seq.length();
+            this.circular = template.isCircular();
+
+            int last = circular ? n : n - SEED + 1;
+            long[] out = new long[Math.max(last, 0)];
+            int num = 0;
+            long kmer = 0;
+            long mask = (1L << (2 * SEED)) - 1;
+            int valid = 0;
+            for (int i = 0; i < last + SEED - 1; i++) {
+                int code = PackedSequence.code(charAt(i));
+                if (code < 0) {
+                    valid = 0;
+                    continue;
+                }
+                kmer = ((kmer << 2) | code) & mask;
+                if (++valid >= SEED) {
+                    int start = i - SEED + 1;
+                    out[num++] = (kmer << 32) | start;
+                }
+            }
+            entries = Arrays.copyOf(out, num);
+            Arrays.sort(entries);
+        }
+
+        char charAt(int pos) {
+            return seq.charAt(circular ? Math.floorMod(pos, n) : pos);
+        }
+
+        /**
+         * @return the positions where kmer starts
+         */
+        int[] find(long kmer) {
+            long lo = kmer << 32;
+            int from = Arrays.binarySearch(entries, lo);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            int to = from;
+            while (to < entries.length && (entries[to] >>> 32) == kmer) {
+                to++;
+            }
+            int[] out = new int[to - from];
+            for (int i = from; i < to; i++) {
+                out[i - from] = (int) entries[i];
+            }
+            return out;
+        }
+
+        /**
+         * @return the 2-bit code of text[from, from + len), or -1 if it holds
+         * anything but A, C, G and T
+         */
+        static long encode(String text, int from, int len) {
+            long out = 0;
+            for (int i = from; i < from + len; i++) {
+                int code = PackedSequence.code(text.charAt(i));
+                if (code < 0) {
+                    return -1;
+                }
+                out = (out << 2) | code;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * A product: the forward primer, the template between the primers and
+     * the reverse complement of the reverse primer.  end and start are the
+     * top-strand coordinates just past the forward primer's 3' end and at
+     * the reverse primer's 3' end.
+     */
+    private static final class Product {
+
+        final SeedIndex index;
+        final String forward;
+        final int end;
+        final String reverse;
+        final int start;
+
+        Product(SeedIndex index, String forward, int end, String reverse, int start) {
+            this.index = index;
+            this.forward = forward;
+            this.end = end;
+            this.reverse = reverse;
+            this.start = start;
+        }
+
+        int length() {
+            return (start + reverse.length()) - (end - forward.length());
+        }
+
+        int templateSpan() {
+            return start - end;
+        }
+
+        String build() {
+            String rcReverse = new RevComp().run(reverse);
+            int from = end - forward.length();
+            int to = start + reverse.length();
+            StringBuilder sb = new StringBuilder(to - from);
+            for (int x = from; x < to; x++) {
+                if (x < end) {
+                    sb.append(forward.charAt(x - from));
+                } else if (x >= start) {
+                    sb.append(rcReverse.charAt(x - start));
+                } else {
+                    sb.append(index.charAt(x));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulatePCR pcr = new SimulatePCR();
+        pcr.initiate();
+
+        String templ = "ttgacagctagctcagtcctaggtataatactagtcatcgccgcagcggtttcaggttttagagctagaaatagcaagttaaaataaggctagtccgttatcaacttgaaaaagtggcaccgagtcggtgc";
+        Polynucleotide template = new Polynucleotide(templ);
+        Polynucleotide fwd = new Polynucleotide("ccataGAATTCtcagtcctaggtataatactag", "", "", false, false, false, Modifications.hydroxyl, Modifications.hydroxyl);
+        Polynucleotide rev = new Polynucleotide("cagtaCTGCAGgccttattttaacttgctatttc", "", "", false, false, false, Modifications.hydroxyl, Modifications.hydroxyl);
+        List<Polynucleotide> templates = new ArrayList<>();
+        templates.add(template);
+        Polynucleotide product = pcr.run(fwd, rev, templates);
+        System.out.println(product.getSequence().length() + " bp");
+        System.out.println(product.getSequence());
+    }
+}
@@ -0,0 +1,166 @@
+package org.ucb.c5.simulation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.ucb.c5.constructionfile.model.Assembly;
+import org.ucb.c5.constructionfile.model.Blunting;
+import org.ucb.c5.constructionfile.model.Digestion;
+import org.ucb.c5.constructionfile.model.Polynucleotide;
+import org.ucb.c5.constructionfile.model.Step;
+import org.ucb.c5.constructionfile.model.Transformation;
+import org.ucb.c5.sequtils.CanonicalForm;
+
+/**
+ * A bounded cache of simulated products, keyed by what was done rather than
+ * by what anything was called.
+ *
+ * A key hashes the step's operation, its parameters other than input names,
+ * and the exact content of each input in order, so the same PCR of the same
+ * template with the same primers is one entry across every construction
+ * file that has it.  Content here includes orientation and origin, as a
+ * digest's fragment numbering depends on both.
+ *
+ * Entries are weighed by their length in bases and evicted least recently
+ * used first once the total passes the limit.  Hits, misses and evictions
+ * are counted.  All methods are thread-safe.
+ */
+public class SimulationCache {
+
+    public static final long DEFAULT_MAX_BASES = 64L << 20;
+
+    //Per-entry bookkeeping, in bases, so short products still cost something
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final SimulationCache SHARED = new SimulationCache(DEFAULT_MAX_BASES);
+
+    private final long maxWeight;
+    private final LinkedHashMap<Long, Polynucleotide> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxWeight the most bases, overhead included, to hold
+     */
+    public SimulationCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("A cache needs a positive size");
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the cache shared by the simulators by default
+     */
+    public static SimulationCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the product cached under key, or null
+     */
+    public synchronized Polynucleotide get(long key) {
+        Polynucleotide out = entries.get(key);
+        if (out == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return out;
+    }
+
+    public synchronized void put(long key, Polynucleotide product) {
+        Polynucleotide old = entries.put(key, product);
+        if (old != null) {
+            weight -= weigh(old);
+        }
+        weight += weigh(product);
+
+        //Evict from the least recently used end, but never the new entry
+        Iterator<Map.Entry<Long, Polynucleotide>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && entries.size() > 1) {
+            Map.Entry<Long, Polynucleotide> eldest = it.next();
+            weight -= weigh(eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static long weigh(Polynucleotide poly) {
+        return poly.getLengthWithOverhangs() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * @param step the step simulated
+     * @param inputs its inputs, in the order of step.getInputs()
+     * @return the key of step's product given those inputs
+     */
+    public static long key(Step step, List<Polynucleotide> inputs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(step.getOperation()).append('(').append(parameters(step)).append(')');
+        for (Polynucleotide input : inputs) {
+            sb.append(':').append(Long.toHexString(input.getExactHash()));
+        }
+        return CanonicalForm.hash64(sb);
+    }
+
+    /**
+     * @return the parameters of step other than its input names
+     */
+    static String parameters(Step step) {
+        switch (step.getOperation()) {
+            case digest:
+                Digestion digest = (Digestion) step;
+                return digest.getEnzymes() + "," + digest.getFragSelection();
+            case assemble:
+                return ((Assembly) step).getEnzyme();
+            case blunting:
+                return ((Blunting) step).getTypes();
+            case transform:
+                Transformation trans = (Transformation) step;
+                return trans.getStrain() + "," + trans.getAntibiotic();
+            default:
+                return "";
+        }
+    }
+
+    public static void main(String[] args) {
+        SimulationCache cache = new SimulationCache(300);
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, new Polynucleotide("ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT"));
+            cache.get(0);
+        }
+        cache.get(3);
+        System.out.println(cache.size() + " entries, " + cache.getWeight() + " bases");
+        System.out.println(cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions");
+        System.out.println("0 kept as most recently used: " + (cache.get(0) != null));
+    }
+}